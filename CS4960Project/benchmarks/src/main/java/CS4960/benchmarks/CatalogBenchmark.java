@@ -0,0 +1,66 @@
+package CS4960.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import CS4960.ProductCatalog;
+
+/**
+ * Benchmarks loading the product catalog and building a result's keywords
+ *
+ * @author Brian Dong
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CatalogBenchmark {
+
+	private SyntheticData data;
+	private ProductCatalog catalog;
+	private String[] asins;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		data = SyntheticData.get();
+		catalog = new ProductCatalog(data.reviewFile, data.metaFile);
+		catalog.loadData();
+
+		asins = new String[SyntheticData.PRODUCTS];
+		for (int i = 0; i < asins.length; i++)
+			asins[i] = SyntheticData.asin(i);
+	}
+
+	/**
+	 * Parses both data files and builds the catalog, without a snapshot
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public ProductCatalog loadData() throws Exception {
+		ProductCatalog loaded = new ProductCatalog(data.reviewFile, data.metaFile);
+		loaded.loadData();
+		return loaded;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String extractKeywords() {
+		String asin = asins[next];
+		next = (next + 1) % asins.length;
+		return catalog.extractKeywords(asin);
+	}
+}
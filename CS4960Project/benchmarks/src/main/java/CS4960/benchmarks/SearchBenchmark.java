@@ -0,0 +1,93 @@
+package CS4960.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import CS4960.ProductCatalog;
+import CS4960.ProductResult;
+import CS4960.SearchEngine;
+import CS4960.SearchService;
+
+/**
+ * Benchmarks the search path, from galago retrieval up to enriched results
+ *
+ * Queries rotate through a fixed list. The search benchmarks empty the result cache
+ * before every search so they measure retrieval, except cachedSearch which measures
+ * searches answered from the cache
+ *
+ * @author Brian Dong
+ *
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+	private static final int QUERIES = 200;
+
+	private SearchEngine engine;
+	private SearchService service;
+	private String[] queries;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		SyntheticData data = SyntheticData.get();
+		ProductCatalog catalog = new ProductCatalog(data.reviewFile, data.metaFile);
+		catalog.loadData();
+		engine = new SearchEngine(data.configFile, data.indexPath);
+		service = new SearchService(engine, catalog);
+
+		List<String> list = SyntheticData.queries(QUERIES);
+		queries = list.toArray(new String[list.size()]);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		engine.close();
+	}
+
+	private String nextQuery() {
+		String query = queries[next];
+		next = (next + 1) % queries.length;
+		return query;
+	}
+
+	@Benchmark
+	public LinkedHashMap<String, Double> runQuery() throws Exception {
+		return engine.runQuery(nextQuery(), SearchService.RESULTS);
+	}
+
+	@Benchmark
+	public List<ProductResult> relevanceSearch() throws Exception {
+		service.invalidateCache();
+		return service.relevanceSearch(nextQuery());
+	}
+
+	@Benchmark
+	public List<ProductResult> rankingSearch() throws Exception {
+		service.invalidateCache();
+		return service.rankingSearch(nextQuery());
+	}
+
+	@Benchmark
+	public List<ProductResult> cachedSearch() throws Exception {
+		return service.relevanceSearch(nextQuery());
+	}
+}
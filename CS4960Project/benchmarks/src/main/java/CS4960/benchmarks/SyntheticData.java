@@ -0,0 +1,84 @@
+package CS4960.benchmarks;
+
+import java.io.File;
+import java.util.List;
+
+import CS4960.SyntheticCatalog;
+
+/**
+ * Small synthetic catalog and galago index the benchmarks run against, standing in
+ * for the Amazon data files that are not part of the repository
+ *
+ * The catalog is generated by SyntheticCatalog from a fixed seed, so every run
+ * benchmarks exactly the same data: review and metadata files in the same format as
+ * the Amazon dataset, a TREC text corpus of each product's title and reviews, and the
+ * galago index built from that corpus. Generated data is kept in the data directory
+ * and reused by later runs, delete it to regenerate
+ *
+ * @author Brian Dong
+ *
+ */
+public class SyntheticData {
+
+	// Default location of the generated data, can be set with -Dbench.data=<dir>
+	public static final String DEFAULT_DIR = "target/bench-data";
+
+	// Size of the generated catalog
+	public static final int PRODUCTS = 2000;
+	public static final int REVIEWS_PER_PRODUCT = 8;
+
+	private static final long SEED = 4960;
+
+	private static final SyntheticCatalog CATALOG = new SyntheticCatalog(SEED, PRODUCTS, REVIEWS_PER_PRODUCT);
+
+	private static File prepared;
+
+	public final File dir;
+	public final String reviewFile;
+	public final String metaFile;
+	public final String configFile;
+	public final String indexPath;
+
+	private SyntheticData(File dir) {
+		this.dir = dir;
+		this.reviewFile = new File(dir, SyntheticCatalog.REVIEW_FILE).getPath();
+		this.metaFile = new File(dir, SyntheticCatalog.META_FILE).getPath();
+		this.configFile = new File(dir, SyntheticCatalog.CONFIG_FILE).getPath();
+		this.indexPath = new File(dir, SyntheticCatalog.INDEX_DIR).getPath();
+	}
+
+	/**
+	 * Returns the synthetic data, generating it and building its index if needed
+	 *
+	 * @return SyntheticData: locations of the generated files
+	 * @throws Exception
+	 */
+	public static synchronized SyntheticData get() throws Exception {
+		if (prepared == null) {
+			File dir = new File(System.getProperty("bench.data", DEFAULT_DIR));
+			SyntheticData data = new SyntheticData(dir);
+			if (!new File(data.indexPath).isDirectory()) {
+				CATALOG.write(dir);
+				SyntheticCatalog.buildIndex(dir);
+			}
+			prepared = dir;
+		}
+		return new SyntheticData(prepared);
+	}
+
+	/**
+	 * @param count: number of queries
+	 * @return List<String>: queries over the catalog's vocabulary, see SyntheticCatalog.queries
+	 */
+	public static List<String> queries(int count) {
+		return CATALOG.queries(count);
+	}
+
+	/**
+	 * @param i: a product number
+	 * @return String: the product's asin
+	 */
+	public static String asin(int i) {
+		return SyntheticCatalog.asin(i);
+	}
+}
@@ -0,0 +1,210 @@
+package CS4960;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Type-ahead suggestions over product titles and the queries users have run
+ *
+ * Titles are weighted by how well reviewed their product is, its number of reviews
+ * times its average rating out of five, and queries by the number of times they were
+ * run and found results, times QUERY_WEIGHT, with every count decayed by DECAY at
+ * each rebuild so recent runs count for more than old ones. Suggestions are answered from an
+ * immutable SuggestionTrie held in memory. Queries recorded since the trie was built
+ * are folded in by rebuilding it on a background thread once REBUILD_EVERY new
+ * queries have been recorded, swapping it in when done, so lookups never wait
+ *
+ * Only the MAX_QUERIES queries with the highest decayed counts are kept: each rebuild
+ * drops the rest, so query traffic can grow the trie and the cost of rebuilding it by
+ * no more than MAX_QUERIES suggestions, plus the queries first recorded since the last
+ * rebuild, which always survive their first one. Since old counts decay, a query that
+ * becomes popular overtakes ones that used to be
+ *
+ * @author Brian Dong
+ *
+ */
+public class Autocomplete {
+
+	// Weight of a single successful run of a query, against one five star review of a title
+	private static final double QUERY_WEIGHT = 5.0;
+
+	// Number of newly recorded queries that triggers a rebuild
+	private static final int REBUILD_EVERY = 100;
+
+	// Longest suggestion kept
+	private static final int MAX_LENGTH = 100;
+
+	// Most recorded queries kept between rebuilds, those with the highest decayed counts
+	private static final int MAX_QUERIES = 10000;
+
+	// Factor every query count is multiplied by at each rebuild, a half life of about
+	// 34 rebuilds, so REBUILD_EVERY * 34 recorded queries
+	private static final double DECAY = 0.98;
+
+	// Title weights, fixed once built
+	private final Map<String, Double> titles;
+
+	// Decayed number of times each query has been run and found results, guarded by itself
+	private final HashMap<String, Double> queries = new HashMap<String, Double>();
+
+	// Queries first recorded since the last rebuild, guarded by queries
+	private final HashSet<String> fresh = new HashSet<String>();
+
+	private volatile SuggestionTrie trie;
+
+	private final AtomicInteger sinceRebuild = new AtomicInteger();
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+	private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "autocomplete-rebuild");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Builds suggestions from every product title in a loaded catalog
+	 *
+	 * @param catalog: the loaded catalog
+	 */
+	public Autocomplete(ProductCatalog catalog) {
+		ProductStore store = catalog.getStore();
+		KeywordIndex ratings = catalog.getKeywords();
+		titles = new HashMap<String, Double>();
+		for (int id = 0; id < store.size(); id++) {
+			String title = store.getTitle(id);
+			if (title == null)
+				continue;
+			String text = normalize(title);
+			if (text.isEmpty() || text.length() > MAX_LENGTH)
+				continue;
+			double weight = ratings.getReviewCount(id) * ratings.getAverage(id) / KeywordIndex.STARS;
+			Double previous = titles.get(text);
+			titles.put(text, previous == null ? weight : previous + weight);
+		}
+		trie = build();
+	}
+
+	/**
+	 * Normalizes text the same way searches are, see ResultCache.normalize
+	 *
+	 * @param text: text as typed
+	 * @return String: the normalized text
+	 */
+	public static String normalize(String text) {
+		return ResultCache.normalize(text);
+	}
+
+	/**
+	 * @param prefix: the text typed so far
+	 * @param k: most suggestions to return, at most SuggestionTrie.TOP
+	 * @return List<String>: the best suggestions starting with prefix, best first
+	 */
+	public List<String> suggest(String prefix, int k) {
+		// Keeps a trailing space, so "red " only suggests text with another word after red
+		String text = prefix.replaceAll("\\s+", " ").toLowerCase();
+		if (text.startsWith(" "))
+			text = text.substring(1);
+		return trie.suggest(text, k);
+	}
+
+	/**
+	 * Records a query that was run and found results, so it can be suggested later
+	 *
+	 * @param query: the query
+	 */
+	public void recordQuery(String query) {
+		String text = normalize(query);
+		if (text.isEmpty() || text.length() > MAX_LENGTH)
+			return;
+		synchronized (queries) {
+			Double count = queries.get(text);
+			if (count == null)
+				fresh.add(text);
+			queries.put(text, count == null ? 1 : count + 1);
+		}
+
+		if (sinceRebuild.incrementAndGet() >= REBUILD_EVERY && rebuilding.compareAndSet(false, true)) {
+			sinceRebuild.set(0);
+			rebuilder.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						trie = build();
+					} finally {
+						rebuilding.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Builds a trie over the titles and recorded queries, first ageing and pruning the
+	 * recorded queries, see age
+	 */
+	private SuggestionTrie build() {
+		Map<String, Double> suggestions = new HashMap<String, Double>(titles);
+		synchronized (queries) {
+			age();
+			for (Map.Entry<String, Double> e : queries.entrySet()) {
+				double weight = e.getValue() * QUERY_WEIGHT;
+				Double previous = suggestions.get(e.getKey());
+				suggestions.put(e.getKey(), previous == null ? weight : previous + weight);
+			}
+		}
+		return new SuggestionTrie(suggestions);
+	}
+
+	/**
+	 * Decays every query count by DECAY, then drops queries until only the MAX_QUERIES
+	 * with the highest counts are left, never dropping a query first recorded since the
+	 * last rebuild
+	 *
+	 * Note: must be called holding the lock on queries
+	 */
+	private void age() {
+		for (Map.Entry<String, Double> e : queries.entrySet())
+			e.setValue(e.getValue() * DECAY);
+
+		if (queries.size() > MAX_QUERIES) {
+			// Ranks the queries that have already been through a rebuild, lowest count first
+			List<Map.Entry<String, Double>> older = new ArrayList<Map.Entry<String, Double>>(queries.size());
+			for (Map.Entry<String, Double> e : queries.entrySet()) {
+				if (!fresh.contains(e.getKey()))
+					older.add(e);
+			}
+			Collections.sort(older, new Comparator<Map.Entry<String, Double>>() {
+				@Override
+				public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+					return Double.compare(a.getValue(), b.getValue());
+				}
+			});
+			int drop = Math.min(older.size(), queries.size() - MAX_QUERIES);
+			List<String> dropped = new ArrayList<String>(drop);
+			for (int i = 0; i < drop; i++)
+				dropped.add(older.get(i).getKey());
+			for (String query : dropped)
+				queries.remove(query);
+		}
+		fresh.clear();
+	}
+
+	/**
+	 * @return int: number of suggestions currently searchable
+	 */
+	public int size() {
+		return trie.size();
+	}
+}
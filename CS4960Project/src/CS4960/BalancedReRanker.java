@@ -0,0 +1,208 @@
+package CS4960;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import CS4960.SearchMetrics.Counter;
+
+/**
+ * Re-ranks products by rating while keeping each slot's relevance close to what
+ * sorting by relevance would have put there
+ *
+ * Note: Products are considered in descending rating order (ties kept in relevance
+ * order), and a product is put into the next free slot if its relevance score is within
+ * threshold of the score of the product that would fill that slot when sorting by
+ * relevance. The threshold starts at 1.1, and is lowered in steps of 0.005 until either
+ * the average relevance error of the k chosen products is below the error target, or
+ * fewer than k products can be placed, whichever happens first
+ *
+ * Rather than restarting the fill for every step, each fill is a single pass over the
+ * candidates, and the step is found by binary search: lowering the threshold only ever
+ * admits products closer to the relevance order, so once a step is acceptable every
+ * lower step is too
+ *
+ * @author Brian Dong
+ *
+ */
+public class BalancedReRanker implements ReRanker {
+
+	// Threshold tried first, and how much it is lowered by each step
+	private static final double START_THRESHOLD = 1.1;
+	private static final double STEP = 0.005;
+
+	// Upper bound on the number of steps considered
+	private static final int MAX_STEPS = 1 << 20;
+
+	private final int k;
+	private final double errorTarget;
+
+	/**
+	 * @param k: number of products to choose
+	 * @param errorTarget: largest acceptable average relevance error, as a fraction
+	 */
+	public BalancedReRanker(int k, double errorTarget) {
+		this.k = k;
+		this.errorTarget = errorTarget;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public double getErrorTarget() {
+		return errorTarget;
+	}
+
+	/**
+	 * The outcome of filling the slots at a single threshold
+	 */
+	public static class Balance {
+		// Positions of the chosen products in the candidate list, in display order
+		public final int[] chosen;
+		public final int filled;
+		public final double threshold;
+		public final double error;
+		public final double relevance;
+		// Number of fills tried before settling on this one
+		public int passes;
+
+		Balance(int[] chosen, int filled, double threshold, double error, double relevance) {
+			this.chosen = chosen;
+			this.filled = filled;
+			this.threshold = threshold;
+			this.error = error;
+			this.relevance = relevance;
+		}
+
+		/**
+		 * @return double: average error as a fraction of average relevance
+		 */
+		public double errorRatio() {
+			return (error / filled) / (relevance / filled);
+		}
+	}
+
+	@Override
+	public List<Candidate> rerank(List<Candidate> candidates) {
+		Balance balance = balance(candidates);
+
+		SearchMetrics metrics = SearchMetrics.global();
+		metrics.increment(Counter.RERANKS);
+		metrics.add(Counter.BALANCE_PASSES, balance.passes);
+
+		// Reports average error for a sample of re-rankings -- used for analysis purposes
+		if (SearchLog.sample())
+			SearchLog.log("Ultimate Threshold Used: " + balance.threshold + "\nAverage Error: " + balance.error / k
+					+ "\nTotal Relevance: " + balance.relevance / k + "\nAverage % Change: "
+					+ (balance.error / k) / (balance.relevance / k));
+
+		List<Candidate> chosen = new ArrayList<Candidate>(balance.filled);
+		for (int i = 0; i < balance.filled; i++)
+			chosen.add(candidates.get(balance.chosen[i]));
+		return chosen;
+	}
+
+	/**
+	 * Finds the highest threshold step whose fill is acceptable
+	 *
+	 * @param candidates: retrieved products, in descending relevance order
+	 * @return Balance: the chosen products along with the threshold and error used
+	 */
+	public Balance balance(final List<Candidate> candidates) {
+		int n = candidates.size();
+		double[] scores = new double[n];
+		for (int i = 0; i < n; i++)
+			scores[i] = candidates.get(i).getScore();
+
+		// Orders candidates by descending rating, keeping relevance order between equal ratings
+		Integer[] boxed = new Integer[n];
+		for (int i = 0; i < n; i++)
+			boxed[i] = i;
+		Arrays.sort(boxed, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(candidates.get(b).getRating(), candidates.get(a).getRating());
+			}
+		});
+		int[] byRating = new int[n];
+		for (int i = 0; i < n; i++)
+			byRating[i] = boxed[i];
+
+		// Checks the first step on its own, since it is usually acceptable
+		Balance best = fill(scores, byRating, START_THRESHOLD);
+		int passes = 1;
+		if (!acceptable(best)) {
+			// Binary searches for the first acceptable step, hi is always acceptable
+			int lo = 0;
+			int hi = lastStep(scores, byRating);
+			Balance atHi = fill(scores, byRating, threshold(hi));
+			passes++;
+			while (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				Balance atMid = fill(scores, byRating, threshold(mid));
+				passes++;
+				if (acceptable(atMid)) {
+					hi = mid;
+					atHi = atMid;
+				} else
+					lo = mid;
+			}
+			best = atHi;
+		}
+		best.passes = passes;
+		return best;
+	}
+
+	private static double threshold(int step) {
+		return START_THRESHOLD - step * STEP;
+	}
+
+	/**
+	 * A fill is acceptable once its error is below the target, or once it could no
+	 * longer fill every slot
+	 */
+	private boolean acceptable(Balance balance) {
+		return balance.filled < k || balance.errorRatio() < errorTarget;
+	}
+
+	/**
+	 * Finds a step low enough that not even the first slot can be filled, which is
+	 * always acceptable
+	 */
+	private int lastStep(double[] scores, int[] byRating) {
+		if (scores.length == 0)
+			return 1;
+		double lowest = Double.POSITIVE_INFINITY;
+		for (int p : byRating)
+			lowest = Math.min(lowest, scores[p] / scores[0]);
+		double steps = Math.ceil((START_THRESHOLD - lowest) / STEP) + 1;
+		return (int) Math.max(1, Math.min(MAX_STEPS, steps));
+	}
+
+	/**
+	 * Fills up to k slots in a single pass at the given threshold
+	 *
+	 * @param scores: relevance scores, in relevance order
+	 * @param byRating: candidate positions, in rating order
+	 * @param threshold: largest accepted ratio between a product's score and its slot's score
+	 * @return Balance: the fill
+	 */
+	private Balance fill(double[] scores, int[] byRating, double threshold) {
+		int[] chosen = new int[Math.min(k, scores.length)];
+		int filled = 0;
+		double error = 0;
+		double relevance = 0;
+		for (int i = 0; i < byRating.length && filled < chosen.length; i++) {
+			int p = byRating[i];
+			// Adds product to list if it is within the acceptable threshold
+			if (scores[p] / scores[filled] < threshold) {
+				error += scores[p] - scores[filled];
+				relevance += scores[filled];
+				chosen[filled++] = p;
+			}
+		}
+		return new Balance(chosen, filled, threshold, error, relevance);
+	}
+}
@@ -0,0 +1,296 @@
+package CS4960;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless batch mode, running a file of queries across every core and writing the
+ * results as TREC run files
+ *
+ * Queries are read either as tab separated lines of query id and query text, or as
+ * TREC topics, using each topic's <num> and <title>. Every query is run sorted by
+ * relevance and sorted by rating on a shared SearchService, and the results are
+ * written to <output>.relevance.run and <output>.rating.run in the usual
+ * "qid Q0 docno rank score tag" format. Once every query has run, throughput and
+ * latency percentiles are reported, along with the relevance error introduced by
+ * sorting by rating
+ *
+ * Some Notes: trec_eval orders documents by score, so rating runs are written with
+ *             scores that fall with rank rather than the products' relevance scores
+ *
+ *             The relevance error of a query is the same measure BalancedReRanker
+ *             balances against: the total difference between each slot's relevance
+ *             score sorted by rating and sorted by relevance, as a fraction of the
+ *             total relevance. It is only reported when ratings are re-ranked, since
+ *             scores from an index with a rating prior are not relevance scores
+ *
+ * Usage: BatchRunner <queryFile> <outputPrefix> [threads]
+ *
+ * @author Brian Dong
+ *
+ */
+public class BatchRunner {
+
+	// Tag written in the last column of the run files
+	private static final String TAG = "CS4960";
+
+	private static final Pattern TOPIC = Pattern.compile("<top>(.*?)</top>", Pattern.DOTALL);
+	private static final Pattern NUM = Pattern.compile("<num>\\s*(?:Number:)?\\s*(\\S+)");
+	private static final Pattern TITLE = Pattern.compile("<title>\\s*(?:Topic:)?\\s*([^<\\n]*)");
+
+	private final SearchService service;
+	private final int threads;
+
+	/**
+	 * A query read from the query file
+	 */
+	public static class Query {
+		public final String id;
+		public final String text;
+
+		public Query(String id, String text) {
+			this.id = id;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * The results of a single query in both sort orders
+	 */
+	private static class Outcome {
+		List<ProductResult> relevance;
+		List<ProductResult> rating;
+		long relevanceNanos;
+		long ratingNanos;
+		boolean failed;
+	}
+
+	/**
+	 * @param service: the search service queries are run on
+	 * @param threads: number of queries run at once
+	 */
+	public BatchRunner(SearchService service, int threads) {
+		this.service = service;
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads queries from a TREC topic file or a tab separated file of id and query
+	 *
+	 * @param fileName: the query file
+	 * @return List<Query>: the queries, in file order
+	 * @throws IOException
+	 */
+	public static List<Query> readQueries(String fileName) throws IOException {
+		StringBuilder text = new StringBuilder();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null)
+				text.append(line).append('\n');
+		} finally {
+			in.close();
+		}
+
+		List<Query> queries = new ArrayList<Query>();
+		Matcher topic = TOPIC.matcher(text);
+		while (topic.find()) {
+			Matcher num = NUM.matcher(topic.group(1));
+			Matcher title = TITLE.matcher(topic.group(1));
+			if (num.find() && title.find())
+				queries.add(new Query(num.group(1), title.group(1).trim()));
+		}
+		if (!queries.isEmpty())
+			return queries;
+
+		// Not a topic file, so reads it as tab separated id and query
+		for (String line : text.toString().split("\n")) {
+			int tab = line.indexOf('\t');
+			if (tab > 0 && tab < line.length() - 1)
+				queries.add(new Query(line.substring(0, tab).trim(), line.substring(tab + 1).trim()));
+		}
+		return queries;
+	}
+
+	/**
+	 * Runs every query in both sort orders, writes the run files and reports the
+	 * throughput, latencies and relevance error
+	 *
+	 * @param queries: the queries to run
+	 * @param outputPrefix: run files are written to <outputPrefix>.relevance.run and <outputPrefix>.rating.run
+	 * @throws Exception
+	 */
+	public void run(List<Query> queries, String outputPrefix) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Outcome>> futures = new ArrayList<Future<Outcome>>(queries.size());
+		long start = System.nanoTime();
+		try {
+			for (final Query q : queries) {
+				futures.add(pool.submit(new Callable<Outcome>() {
+					@Override
+					public Outcome call() {
+						Outcome o = new Outcome();
+						try {
+							long t = System.nanoTime();
+							o.relevance = service.search(q.text, SortMode.RELEVANCE);
+							o.relevanceNanos = System.nanoTime() - t;
+							t = System.nanoTime();
+							o.rating = service.search(q.text, SortMode.RATING);
+							o.ratingNanos = System.nanoTime() - t;
+						} catch (Exception e) {
+							// Leaves the query out of the run files rather than stopping the batch
+							System.out.println("Query " + q.id + " failed: " + e);
+							o.relevance = Collections.emptyList();
+							o.rating = Collections.emptyList();
+							o.failed = true;
+						}
+						return o;
+					}
+				}));
+			}
+
+			List<Outcome> outcomes = new ArrayList<Outcome>(futures.size());
+			for (Future<Outcome> f : futures)
+				outcomes.add(f.get());
+			long elapsed = System.nanoTime() - start;
+
+			writeRun(outputPrefix + ".relevance.run", queries, outcomes, false);
+			writeRun(outputPrefix + ".rating.run", queries, outcomes, true);
+			report(queries.size(), elapsed, outcomes);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Writes one sort order's results in TREC run format
+	 */
+	private static void writeRun(String fileName, List<Query> queries, List<Outcome> outcomes, boolean rating)
+			throws IOException {
+		BufferedWriter out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+		try {
+			for (int i = 0; i < queries.size(); i++) {
+				List<ProductResult> results = rating ? outcomes.get(i).rating : outcomes.get(i).relevance;
+				for (int r = 0; r < results.size(); r++) {
+					double score = rating ? results.size() - r : results.get(r).getScore();
+					out.write(queries.get(i).id + " Q0 " + results.get(r).getAsin() + " " + (r + 1) + " " + score + " "
+							+ TAG);
+					out.newLine();
+				}
+			}
+		} finally {
+			out.close();
+		}
+		System.out.println("Wrote '" + fileName + "'");
+	}
+
+	/**
+	 * Prints throughput, latency percentiles and relevance error
+	 */
+	private void report(int count, long elapsed, List<Outcome> outcomes) {
+		List<Outcome> succeeded = new ArrayList<Outcome>(outcomes.size());
+		for (Outcome o : outcomes) {
+			if (!o.failed)
+				succeeded.add(o);
+		}
+
+		long[] relevance = new long[succeeded.size()];
+		long[] rating = new long[succeeded.size()];
+		List<Double> errors = new ArrayList<Double>();
+		for (int i = 0; i < succeeded.size(); i++) {
+			Outcome o = succeeded.get(i);
+			relevance[i] = o.relevanceNanos;
+			rating[i] = o.ratingNanos;
+			double error = relevanceError(o.relevance, o.rating);
+			if (!Double.isNaN(error))
+				errors.add(error);
+		}
+
+		double seconds = elapsed / 1e9;
+		System.out.println(count + " queries in " + String.format("%.2f", seconds) + "s on " + threads + " threads, "
+				+ String.format("%.1f", 2 * count / seconds) + " searches/sec"
+				+ (succeeded.size() < count ? ", " + (count - succeeded.size()) + " failed" : ""));
+		System.out.println("Relevance latency " + percentiles(relevance));
+		System.out.println("Rating latency    " + percentiles(rating));
+
+		if (!service.getEngine().hasRatingPrior() && !errors.isEmpty()) {
+			double[] sorted = new double[errors.size()];
+			double total = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = errors.get(i);
+				total += sorted[i];
+			}
+			Arrays.sort(sorted);
+			System.out.println("Rating relevance error: mean " + String.format("%.4f", total / sorted.length) + ", p95 "
+					+ String.format("%.4f", sorted[index(sorted.length, 0.95)]) + ", max "
+					+ String.format("%.4f", sorted[sorted.length - 1]));
+		}
+	}
+
+	/**
+	 * @return double: total difference between the slots' relevance scores in the two
+	 * 				   orders, as a fraction of the total relevance, or NaN if there is none
+	 */
+	static double relevanceError(List<ProductResult> relevance, List<ProductResult> rating) {
+		int slots = Math.min(relevance.size(), rating.size());
+		double error = 0;
+		double total = 0;
+		for (int i = 0; i < slots; i++) {
+			error += rating.get(i).getScore() - relevance.get(i).getScore();
+			total += relevance.get(i).getScore();
+		}
+		return total == 0 ? Double.NaN : error / total;
+	}
+
+	static String percentiles(long[] nanos) {
+		if (nanos.length == 0)
+			return "n/a";
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		return "p50 " + millis(sorted[index(sorted.length, 0.50)]) + " p95 " + millis(sorted[index(sorted.length, 0.95)])
+				+ " p99 " + millis(sorted[index(sorted.length, 0.99)]) + " max " + millis(sorted[sorted.length - 1]);
+	}
+
+	static int index(int length, double p) {
+		return Math.min(length - 1, Math.max(0, (int) Math.ceil(p * length) - 1));
+	}
+
+	static String millis(long nanos) {
+		return String.format("%.2fms", nanos / 1e6);
+	}
+
+	/**
+	 * Runs a query file against the default index and data files
+	 *
+	 * @param args: query file, output prefix, and optionally the number of threads
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: BatchRunner <queryFile> <outputPrefix> [threads]");
+			return;
+		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		List<Query> queries = readQueries(args[0]);
+		System.out.println("Read " + queries.size() + " queries from '" + args[0] + "'");
+		new BatchRunner(SearchService.open(), threads).run(queries, args[1]);
+	}
+}
@@ -0,0 +1,31 @@
+package CS4960;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cheap cancellation checks for searches running on a background thread
+ *
+ * A search is cancelled by interrupting the thread running it, for example with
+ * Future.cancel(true) or SwingWorker.cancel(true). The search checks for this between
+ * its stages and between the products it enriches, and stops with a
+ * CancellationException instead of finishing work nobody will look at
+ *
+ * Note: galago does not check for interruption while it executes a query, so a
+ *       cancelled search stops once the running galago call returns
+ *
+ * @author Brian Dong
+ *
+ */
+public class Cancellation {
+
+	private Cancellation() {
+	}
+
+	/**
+	 * @throws CancellationException if the current thread has been interrupted
+	 */
+	public static void check() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Search cancelled");
+	}
+}
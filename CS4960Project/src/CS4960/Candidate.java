@@ -0,0 +1,37 @@
+package CS4960;
+
+/**
+ * A product retrieved by galago, before it is enriched into a ProductResult
+ *
+ * @author Brian Dong
+ *
+ */
+public class Candidate {
+
+	private final String asin;
+	private final double score;
+	private final double rating;
+
+	/**
+	 * @param asin: the product's asin
+	 * @param score: the product's galago relevance score for the query
+	 * @param rating: the product's average star rating
+	 */
+	public Candidate(String asin, double score, double rating) {
+		this.asin = asin;
+		this.score = score;
+		this.rating = rating;
+	}
+
+	public String getAsin() {
+		return asin;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public double getRating() {
+		return rating;
+	}
+}
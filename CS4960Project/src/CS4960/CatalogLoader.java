@@ -0,0 +1,549 @@
+package CS4960;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Parallel reader for the line delimited Amazon review and metadata files
+ *
+ * Each file is split into chunks of roughly chunkSize bytes, cut on line boundaries,
+ * and the chunks are parsed in parallel on a fork-join pool. Every chunk builds its own
+ * aggregates with a single reused JsonProjector, and neighbouring chunks are merged back
+ * together in file order, so the merged result is the same as reading the file line
+ * by line
+ *
+ * Only the fields the catalog uses are read from each line, see REVIEW_FIELDS and
+ * META_FIELDS; the rest of the line is skipped straight over in its bytes. Each line
+ * is returned as a JsonRecord holding its offset in the file, so the whole line can
+ * be read back with readRecord
+ *
+ * Some Notes: Only about parallelism chunks are held in memory at once, since each
+ *             chunk's bytes are read when its task runs and dropped once parsed
+ *
+ *             Lines that fail to parse are skipped and counted rather than aborting
+ *             the rest of the file
+ *
+ * @author Brian Dong
+ *
+ */
+public class CatalogLoader {
+
+	// Default number of bytes read and parsed by a single task
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	// Fields read from each review and metadata line by default
+	public static final List<String> REVIEW_FIELDS = Collections
+			.unmodifiableList(Arrays.asList("asin", "overall", "summary"));
+	public static final List<String> META_FIELDS = Collections.unmodifiableList(
+			Arrays.asList("asin", "title", "image", "brand", "price", "category", "categories"));
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	// Number of bytes of the review file read by the last loadReviews
+	private volatile long loadedReviewLength;
+
+	/**
+	 * Creates a loader using every available core
+	 */
+	public CatalogLoader() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param parallelism: number of chunks parsed at once
+	 * @param chunkSize: approximate number of bytes in a chunk
+	 */
+	public CatalogLoader(int parallelism, int chunkSize) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Reviews of a single product, in file order, along with the sum of their ratings
+	 */
+	public static class ProductReviews {
+		public final ArrayList<JsonRecord> reviews = new ArrayList<JsonRecord>();
+		public double total;
+	}
+
+	/**
+	 * Reads the REVIEW_FIELDS of every review in a review file, grouped by product
+	 *
+	 * @param fileName: line delimited JSON file of product reviews
+	 * @return HashMap<String, ProductReviews>: asins mapped to their reviews
+	 * @throws IOException
+	 */
+	public HashMap<String, ProductReviews> loadReviews(String fileName) throws IOException {
+		return loadReviews(fileName, REVIEW_FIELDS);
+	}
+
+	/**
+	 * Reads chosen fields of every review in a review file, grouped by product
+	 *
+	 * Note: a last line with no newline after it is read if it is a whole review, as
+	 * it is in a file that simply does not end in a newline; otherwise it is taken to
+	 * be partly written, and left for ReviewTailer to read once it is finished, see
+	 * getLoadedReviewLength
+	 *
+	 * @param fileName: line delimited JSON file of product reviews
+	 * @param fields: fields to read, which must include "asin" and "overall"
+	 * @return HashMap<String, ProductReviews>: asins mapped to their reviews
+	 * @throws IOException
+	 */
+	public HashMap<String, ProductReviews> loadReviews(String fileName, List<String> fields) throws IOException {
+		long start = System.nanoTime();
+		long[] bounds = split(fileName);
+		long length = bounds[bounds.length - 1];
+		long end = lastLineEnd(fileName, length);
+		if (end < length && !wholeReview(read(fileName, end, length), end, fields))
+			bounds[bounds.length - 1] = end;
+		loadedReviewLength = bounds[bounds.length - 1];
+		ReviewChunk merged = pool.invoke(new ReviewTask(fileName, fields, bounds, 0, bounds.length - 1));
+		report(fileName, merged.lines, merged.errors, start);
+		return merged.products;
+	}
+
+	/**
+	 * Reads the META_FIELDS of every product in products from a metadata file
+	 *
+	 * @param fileName: line delimited JSON file of product metadata
+	 * @param products: asins to keep metadata for, all others are dropped
+	 * @return HashMap<String, JsonRecord>: asins mapped to their metadata
+	 * @throws IOException
+	 */
+	public HashMap<String, JsonRecord> loadMeta(String fileName, Set<String> products) throws IOException {
+		return loadMeta(fileName, products, META_FIELDS);
+	}
+
+	/**
+	 * Reads chosen fields of every product in products from a metadata file
+	 *
+	 * @param fileName: line delimited JSON file of product metadata
+	 * @param products: asins to keep metadata for, all others are dropped
+	 * @param fields: fields to read, which must include "asin"
+	 * @return HashMap<String, JsonRecord>: asins mapped to their metadata
+	 * @throws IOException
+	 */
+	public HashMap<String, JsonRecord> loadMeta(String fileName, Set<String> products, List<String> fields)
+			throws IOException {
+		long start = System.nanoTime();
+		long[] bounds = split(fileName);
+		MetaChunk merged = pool.invoke(new MetaTask(fileName, products, fields, bounds, 0, bounds.length - 1));
+		report(fileName, merged.lines, merged.errors, start);
+		return merged.products;
+	}
+
+	/**
+	 * @return long: number of bytes of the review file read by the last loadReviews,
+	 * 				 the offset new reviews are to be read from
+	 */
+	public long getLoadedReviewLength() {
+		return loadedReviewLength;
+	}
+
+	/**
+	 * Shuts down the loader's threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Reads back the whole of a line returned by loadReviews or loadMeta
+	 *
+	 * @param fileName: the file the line was read from
+	 * @param offset: the line's offset, see JsonRecord.getOffset
+	 * @return JSONObject: every field of the line
+	 * @throws IOException
+	 * @throws ParseException if the line is no longer a JSON object
+	 */
+	public static JSONObject readRecord(String fileName, long offset) throws IOException, ParseException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			// Reads until the end of the line, doubling the read each time it is not found
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			int scanned = 0;
+			while (true) {
+				int n = channel.read(buffer, offset + buffer.position());
+				byte[] bytes = buffer.array();
+				for (int i = scanned; i < buffer.position(); i++) {
+					if (bytes[i] == '\n')
+						return parseRecord(bytes, i);
+				}
+				scanned = buffer.position();
+				if (n < 0)
+					return parseRecord(bytes, scanned);
+				if (!buffer.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					buffer.flip();
+					larger.put(buffer);
+					buffer = larger;
+				}
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	private static JSONObject parseRecord(byte[] bytes, int end) throws ParseException {
+		if (end > 0 && bytes[end - 1] == '\r')
+			end--;
+		return (JSONObject) new JSONParser().parse(new String(bytes, 0, end, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Prints how quickly a file was read
+	 */
+	private static void report(String fileName, long lines, long errors, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("Read " + lines + " lines from '" + fileName + "' in "
+				+ String.format("%.2f", seconds) + "s (" + (long) (lines / Math.max(seconds, 1e-9)) + " lines/sec)"
+				+ (errors > 0 ? ", skipped " + errors + " unparsable lines" : ""));
+	}
+
+	/**
+	 * Splits a file into chunks that each start at the beginning of a line
+	 *
+	 * Note: the length of the file is read once, so lines appended while the file is
+	 * being read are never read
+	 *
+	 * @param fileName: file to split
+	 * @return long[] bounds: chunk i covers bytes bounds[i] up to bounds[i + 1]
+	 * @throws IOException
+	 */
+	private long[] split(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			long length = file.length();
+			List<Long> bounds = new ArrayList<Long>();
+			bounds.add(0L);
+			long pos = chunkSize;
+			while (pos < length) {
+				// Moves forward to just past the next newline
+				file.seek(pos);
+				int b;
+				while ((b = file.read()) != -1 && b != '\n')
+					pos++;
+				pos++;
+				if (pos >= length)
+					break;
+				bounds.add(pos);
+				pos += chunkSize;
+			}
+			bounds.add(length);
+
+			long[] result = new long[bounds.size()];
+			for (int i = 0; i < result.length; i++)
+				result[i] = bounds.get(i);
+			return result;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @return long: the offset just past the last newline before length, 0 if there is none
+	 */
+	private static long lastLineEnd(String fileName, long length) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			byte[] block = new byte[8192];
+			long end = length;
+			while (end > 0) {
+				int n = (int) Math.min(block.length, end);
+				file.seek(end - n);
+				file.readFully(block, 0, n);
+				for (int i = n - 1; i >= 0; i--) {
+					if (block[i] == '\n')
+						return end - n + i + 1;
+				}
+				end -= n;
+			}
+			return 0;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @param line: a line with no newline after it
+	 * @param offset: the line's offset in its file
+	 * @param fields: fields read from each review
+	 * @return boolean: whether the line is a whole, valid review
+	 */
+	private static boolean wholeReview(byte[] line, long offset, List<String> fields) {
+		int end = line.length;
+		if (end > 0 && line[end - 1] == '\r')
+			end--;
+		try {
+			return validReview(new JsonProjector(fields).project(line, 0, end, new JsonRecord(offset, end)));
+		} catch (ParseException | ClassCastException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param review: a parsed review
+	 * @return boolean: whether the review has an asin and a rating of 1 to 5 stars
+	 */
+	private static boolean validReview(JsonRecord review) {
+		Object overall = review.get("overall");
+		return review.get("asin") instanceof String && overall instanceof Number
+				&& KeywordIndex.stars(((Number) overall).doubleValue()) > 0;
+	}
+
+	/**
+	 * Reads the bytes from start up to end of a file
+	 */
+	private static byte[] read(String fileName, long start, long end) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+			while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) != -1)
+				;
+			return buffer.array();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Parses every line of a chunk with a single projector, passing each parsed record on
+	 *
+	 * @param bytes: the chunk
+	 * @param base: offset of the chunk in its file
+	 * @param fields: fields read from each line
+	 * @return long[] {lines, errors}
+	 */
+	private static long[] parseLines(byte[] bytes, long base, List<String> fields, LineHandler handler) {
+		JsonProjector projector = new JsonProjector(fields);
+		long lines = 0, errors = 0;
+		int lineStart = 0;
+		for (int i = 0; i <= bytes.length; i++) {
+			if (i == bytes.length || bytes[i] == '\n') {
+				int lineEnd = i;
+				if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r')
+					lineEnd--;
+				if (lineEnd > lineStart) {
+					lines++;
+					try {
+						if (!handler.handle(projector.project(bytes, lineStart, lineEnd,
+								new JsonRecord(base + lineStart, lineEnd - lineStart))))
+							errors++;
+					} catch (ParseException | ClassCastException e) {
+						errors++;
+					}
+				}
+				lineStart = i + 1;
+			}
+		}
+		return new long[] { lines, errors };
+	}
+
+	/**
+	 * Receives each parsed line of a chunk
+	 */
+	private interface LineHandler {
+
+		/**
+		 * @param obj: the parsed line
+		 * @return boolean: whether the line was valid, invalid lines are counted as errors
+		 */
+		boolean handle(JsonRecord obj);
+	}
+
+	/**
+	 * Reviews parsed from one or more neighbouring chunks
+	 */
+	private static class ReviewChunk {
+		HashMap<String, ProductReviews> products = new HashMap<String, ProductReviews>();
+		long lines, errors;
+
+		/**
+		 * Appends the reviews of the chunk that follows this one
+		 */
+		ReviewChunk merge(ReviewChunk next) {
+			// Keeps the larger map and merges the smaller into it
+			if (next.products.size() > products.size()) {
+				for (Map.Entry<String, ProductReviews> e : products.entrySet()) {
+					ProductReviews later = next.products.get(e.getKey());
+					if (later == null)
+						next.products.put(e.getKey(), e.getValue());
+					else {
+						e.getValue().reviews.addAll(later.reviews);
+						e.getValue().total += later.total;
+						next.products.put(e.getKey(), e.getValue());
+					}
+				}
+				products = next.products;
+			} else {
+				for (Map.Entry<String, ProductReviews> e : next.products.entrySet()) {
+					ProductReviews earlier = products.get(e.getKey());
+					if (earlier == null)
+						products.put(e.getKey(), e.getValue());
+					else {
+						earlier.reviews.addAll(e.getValue().reviews);
+						earlier.total += e.getValue().total;
+					}
+				}
+			}
+			lines += next.lines;
+			errors += next.errors;
+			return this;
+		}
+	}
+
+	/**
+	 * Parses chunks lo up to hi of a review file
+	 */
+	private static class ReviewTask extends RecursiveTask<ReviewChunk> {
+		private static final long serialVersionUID = 1L;
+		private final String fileName;
+		private final List<String> fields;
+		private final long[] bounds;
+		private final int lo, hi;
+
+		ReviewTask(String fileName, List<String> fields, long[] bounds, int lo, int hi) {
+			this.fileName = fileName;
+			this.fields = fields;
+			this.bounds = bounds;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected ReviewChunk compute() {
+			// Splits in half until a single chunk is left
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				ReviewTask right = new ReviewTask(fileName, fields, bounds, mid, hi);
+				right.fork();
+				ReviewChunk left = new ReviewTask(fileName, fields, bounds, lo, mid).compute();
+				return left.merge(right.join());
+			}
+
+			final ReviewChunk chunk = new ReviewChunk();
+			if (hi == lo)
+				return chunk;
+			try {
+				long[] counts = parseLines(read(fileName, bounds[lo], bounds[hi]), bounds[lo], fields, new LineHandler() {
+					@Override
+					public boolean handle(JsonRecord obj) {
+						// Checks the review before touching the chunk, so a bad line leaves no trace
+						if (!validReview(obj))
+							return false;
+						String asin = (String) obj.get("asin");
+						int overall = KeywordIndex.stars(((Number) obj.get("overall")).doubleValue());
+
+						// Adds review, creating the product if it doesn't appear yet
+						ProductReviews product = chunk.products.get(asin);
+						if (product == null) {
+							product = new ProductReviews();
+							chunk.products.put(asin, product);
+						}
+						product.reviews.add(obj);
+						product.total += overall;
+						return true;
+					}
+				});
+				chunk.lines = counts[0];
+				chunk.errors = counts[1];
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading file '" + fileName + "'", e);
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Metadata parsed from one or more neighbouring chunks
+	 */
+	private static class MetaChunk {
+		HashMap<String, JsonRecord> products = new HashMap<String, JsonRecord>();
+		long lines, errors;
+
+		/**
+		 * Adds the metadata of the chunk that follows this one
+		 */
+		MetaChunk merge(MetaChunk next) {
+			// Later lines replace earlier ones for the same product, as when reading in order
+			products.putAll(next.products);
+			lines += next.lines;
+			errors += next.errors;
+			return this;
+		}
+	}
+
+	/**
+	 * Parses chunks lo up to hi of a metadata file
+	 */
+	private static class MetaTask extends RecursiveTask<MetaChunk> {
+		private static final long serialVersionUID = 1L;
+		private final String fileName;
+		private final Set<String> keep;
+		private final List<String> fields;
+		private final long[] bounds;
+		private final int lo, hi;
+
+		MetaTask(String fileName, Set<String> keep, List<String> fields, long[] bounds, int lo, int hi) {
+			this.fileName = fileName;
+			this.keep = keep;
+			this.fields = fields;
+			this.bounds = bounds;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected MetaChunk compute() {
+			// Splits in half until a single chunk is left
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				MetaTask right = new MetaTask(fileName, keep, fields, bounds, mid, hi);
+				right.fork();
+				MetaChunk left = new MetaTask(fileName, keep, fields, bounds, lo, mid).compute();
+				return left.merge(right.join());
+			}
+
+			final MetaChunk chunk = new MetaChunk();
+			if (hi == lo)
+				return chunk;
+			try {
+				long[] counts = parseLines(read(fileName, bounds[lo], bounds[hi]), bounds[lo], fields, new LineHandler() {
+					@Override
+					public boolean handle(JsonRecord obj) {
+						// Keeps metadata only for products that have reviews
+						String asin = (String) obj.get("asin");
+						if (keep.contains(asin))
+							chunk.products.put(asin, obj);
+						return true;
+					}
+				});
+				chunk.lines = counts[0];
+				chunk.errors = counts[1];
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading file '" + fileName + "'", e);
+			}
+			return chunk;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package CS4960;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Compact binary copy of the product store, keyword index and facet index, used to skip parsing
+ * the JSON files on startup
+ *
+ * A snapshot is written after the JSON files have been parsed, and on the next start
+ * it is memory-mapped instead of parsing them again. The snapshot records the size and
+ * modification time of the files it was built from, and is ignored if either file has
+ * changed since. The size recorded for the review file is the number of bytes that
+ * were read, which leaves out a partly written last line, ReviewTailer reads the rest
+ *
+ * Layout: header   magic, version, review file size/time, meta file size/time
+ *         store    the product store's columns, see ProductStore.writeTo
+ *         keywords the keyword index, see KeywordIndex.writeTo
+ *         facets   the facet index's columns, see FacetIndex.writeTo
+ *
+ * Note: the store read from a snapshot is backed directly by the mapped file, so only
+ * the asin dictionary is decoded when it is opened, and the rest is paged in as used.
+ * The keyword index is copied into memory, since it keeps taking new reviews, and the
+ * facet index's id sets are rebuilt from its columns
+ *
+ * @author Brian Dong
+ *
+ */
+public class CatalogSnapshot {
+
+	// Default location of the snapshot file
+	public static final String DEFAULT_FILE = "Data/catalog.snapshot";
+
+	private static final int MAGIC = 0x43534e50; // "CSNP"
+	private static final int VERSION = 5;
+	private static final int HEADER = 4 + 4 + 8 * 4;
+
+	// Product data read from the snapshot
+	private final ProductStore store;
+	private final KeywordIndex keywords;
+	private final FacetIndex facets;
+
+	// Number of bytes of the review file the snapshot was built from
+	private final long reviewLength;
+
+	private CatalogSnapshot(ProductStore store, KeywordIndex keywords, FacetIndex facets, long reviewLength) {
+		this.store = store;
+		this.keywords = keywords;
+		this.facets = facets;
+		this.reviewLength = reviewLength;
+	}
+
+	/**
+	 * @return long: number of bytes of the review file the snapshot was built from
+	 */
+	public long getReviewLength() {
+		return reviewLength;
+	}
+
+	public ProductStore getStore() {
+		return store;
+	}
+
+	public KeywordIndex getKeywords() {
+		return keywords;
+	}
+
+	public FacetIndex getFacets() {
+		return facets;
+	}
+
+	/**
+	 * Memory-maps a snapshot if it exists and was built from the current data files
+	 *
+	 * @param snapshotFile: the snapshot to open
+	 * @param reviewFile: review file the catalog is read from
+	 * @param metaFile: metadata file the catalog is read from
+	 * @return CatalogSnapshot: the snapshot's contents, or null if it is missing or out of date
+	 * @throws IOException
+	 */
+	public static CatalogSnapshot open(String snapshotFile, String reviewFile, String metaFile) throws IOException {
+		File file = new File(snapshotFile);
+		if (!file.isFile() || file.length() < HEADER)
+			return null;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+			// Checks the snapshot is ours and matches the data files
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				return null;
+			File reviews = new File(reviewFile);
+			File meta = new File(metaFile);
+			// The review file may run past the bytes read, by a line that was still being written
+			if (buffer.getLong(8) > reviews.length() || buffer.getLong(16) != reviews.lastModified()
+					|| buffer.getLong(24) != meta.length() || buffer.getLong(32) != meta.lastModified()) {
+				System.out.println("Catalog snapshot '" + snapshotFile + "' is out of date");
+				return null;
+			}
+
+			buffer.position(HEADER);
+			ProductStore store = ProductStore.read(buffer);
+			KeywordIndex keywords = KeywordIndex.read(buffer);
+			return new CatalogSnapshot(store, keywords, FacetIndex.read(buffer), buffer.getLong(8));
+		} finally {
+			// The mapping stays valid once the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of a loaded product store, keyword index and facet index
+	 *
+	 * Note: the snapshot is written to a temporary file and then moved into place, so
+	 * a reader never sees a partly written snapshot
+	 *
+	 * Note: the snapshot is only used again while the review file is unmodified, and
+	 * only the first reviewLength bytes of it are taken to be in the snapshot
+	 *
+	 * @param snapshotFile: where to write the snapshot
+	 * @param store: the loaded store
+	 * @param keywords: the loaded keyword index
+	 * @param facets: the loaded facet index
+	 * @param reviewFile: review file the store was read from
+	 * @param reviewLength: number of bytes of the review file that were read
+	 * @param metaFile: metadata file the store was read from
+	 * @throws IOException
+	 */
+	public static void write(String snapshotFile, ProductStore store, KeywordIndex keywords, FacetIndex facets,
+			String reviewFile, long reviewLength, String metaFile) throws IOException {
+		File file = new File(snapshotFile);
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			File reviews = new File(reviewFile);
+			File meta = new File(metaFile);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(reviewLength);
+			out.writeLong(reviews.lastModified());
+			out.writeLong(meta.length());
+			out.writeLong(meta.lastModified());
+			store.writeTo(out);
+			keywords.writeTo(out);
+			facets.writeTo(out);
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
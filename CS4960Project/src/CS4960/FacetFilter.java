@@ -0,0 +1,162 @@
+package CS4960;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Restrictions on the products a search may return, by brand, category, price range
+ * and minimum average rating
+ *
+ * A product must match every facet that is set, and for brands and categories any one
+ * of the listed values. Filters are immutable, build one with a Builder
+ *
+ * @author Brian Dong
+ *
+ */
+public class FacetFilter {
+
+	// Filter that allows every product
+	public static final FacetFilter NONE = new Builder().build();
+
+	private final Set<String> brands;
+	private final Set<String> categories;
+	private final double minPrice;
+	private final double maxPrice;
+	private final double minRating;
+
+	private FacetFilter(Builder b) {
+		this.brands = Collections.unmodifiableSet(new TreeSet<String>(b.brands));
+		this.categories = Collections.unmodifiableSet(new TreeSet<String>(b.categories));
+		this.minPrice = b.minPrice;
+		this.maxPrice = b.maxPrice;
+		this.minRating = b.minRating;
+	}
+
+	/**
+	 * @return Set<String>: allowed brands, lowercased, empty if any brand is allowed
+	 */
+	public Set<String> getBrands() {
+		return brands;
+	}
+
+	/**
+	 * @return Set<String>: allowed categories, lowercased, empty if any category is allowed
+	 */
+	public Set<String> getCategories() {
+		return categories;
+	}
+
+	/**
+	 * @return double: lowest allowed price in dollars, NaN if there is no lower bound
+	 */
+	public double getMinPrice() {
+		return minPrice;
+	}
+
+	/**
+	 * @return double: highest allowed price in dollars, NaN if there is no upper bound
+	 */
+	public double getMaxPrice() {
+		return maxPrice;
+	}
+
+	/**
+	 * @return boolean: whether the filter restricts products by price
+	 */
+	public boolean hasPrice() {
+		return !Double.isNaN(minPrice) || !Double.isNaN(maxPrice);
+	}
+
+	/**
+	 * @return double: lowest allowed average rating, 0 if any rating is allowed
+	 */
+	public double getMinRating() {
+		return minRating;
+	}
+
+	/**
+	 * @return boolean: whether the filter allows every product
+	 */
+	public boolean isEmpty() {
+		return brands.isEmpty() && categories.isEmpty() && !hasPrice() && minRating <= 0;
+	}
+
+	/**
+	 * @return String: text identifying the filter, equal for filters allowing the same products
+	 */
+	public String key() {
+		return "b=" + brands + ";c=" + categories + ";p=" + minPrice + "-" + maxPrice + ";r=" + minRating;
+	}
+
+	@Override
+	public String toString() {
+		return key();
+	}
+
+	/**
+	 * Accumulates the facets of a new filter
+	 */
+	public static class Builder {
+		private final Set<String> brands = new TreeSet<String>();
+		private final Set<String> categories = new TreeSet<String>();
+		private double minPrice = Double.NaN;
+		private double maxPrice = Double.NaN;
+		private double minRating;
+
+		/**
+		 * Allows a brand, matched ignoring case
+		 *
+		 * @param brand: the brand
+		 * @return Builder: this builder
+		 */
+		public Builder brand(String brand) {
+			if (brand != null && !brand.trim().isEmpty())
+				brands.add(brand.trim().toLowerCase());
+			return this;
+		}
+
+		/**
+		 * Allows a category, matched ignoring case
+		 *
+		 * @param category: the category
+		 * @return Builder: this builder
+		 */
+		public Builder category(String category) {
+			if (category != null && !category.trim().isEmpty())
+				categories.add(category.trim().toLowerCase());
+			return this;
+		}
+
+		/**
+		 * @param dollars: lowest allowed price, products without a price are excluded
+		 * @return Builder: this builder
+		 */
+		public Builder minPrice(double dollars) {
+			this.minPrice = dollars;
+			return this;
+		}
+
+		/**
+		 * @param dollars: highest allowed price, products without a price are excluded
+		 * @return Builder: this builder
+		 */
+		public Builder maxPrice(double dollars) {
+			this.maxPrice = dollars;
+			return this;
+		}
+
+		/**
+		 * @param stars: lowest allowed average rating
+		 * @return Builder: this builder
+		 */
+		public Builder minRating(double stars) {
+			this.minRating = stars;
+			return this;
+		}
+
+		public FacetFilter build() {
+			return new FacetFilter(this);
+		}
+	}
+}
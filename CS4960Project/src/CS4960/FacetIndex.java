@@ -0,0 +1,598 @@
+package CS4960;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Facet indexes over product metadata, used to restrict searches by brand, category,
+ * price and minimum average rating, and to count the facets of a result set
+ *
+ * Each product's brand, price and categories are read from its metadata once, when
+ * the catalog is loaded, and kept as columns by product id, the same ids as the
+ * ProductStore. For every brand and category the ids of the products having it are
+ * kept as an IdSet, either a sorted array of ids or a bitmap over every id, whichever
+ * is smaller, and products with a price are kept sorted by price so a price range is
+ * a pair of binary searches. A filter is answered by combining these sets into a
+ * bitmap of the allowed ids, without looking at any product's JSON
+ *
+ * Some Notes: Ratings change as reviews are added (see ReviewTailer), so they are not
+ *             indexed here; the minimum rating is answered by the rating buckets the
+ *             KeywordIndex keeps up to date as reviews are added
+ *
+ *             Brands and categories are matched ignoring case, each being shown the
+ *             way it was first written in the metadata
+ *
+ * @author Brian Dong
+ *
+ */
+public class FacetIndex {
+
+	// Names of the facets counted by count
+	public static final String BRAND = "brand";
+	public static final String CATEGORY = "category";
+	public static final String PRICE = "price";
+	public static final String RATING = "rating";
+
+	// Most brands and categories counted per result set
+	public static final int TOP_VALUES = 20;
+
+	// Upper bounds in cents of the price ranges counted, the last range is open ended
+	private static final int[] PRICE_BOUNDS = { 1000, 2500, 5000, 10000, 25000 };
+	private static final String[] PRICE_LABELS = { "$0-10", "$10-25", "$25-50", "$50-100", "$100-250", "$250+" };
+
+	// Minimum average ratings counted
+	private static final int[] RATING_STEPS = { 4, 3, 2, 1 };
+
+	private static final Pattern NUMBER = Pattern.compile("\\d+(?:\\.\\d+)?");
+
+	// Columns, by product id; -1 where a product has no brand or price
+	private final int size;
+	private final String[] brandNames;
+	private final String[] categoryNames;
+	private final int[] brand;
+	private final int[] price;
+	private final int[] categoryStart;
+	private final int[] category;
+
+	// Lowercased brand and category names mapped to their ids
+	private final Map<String, Integer> brandIds;
+	private final Map<String, Integer> categoryIds;
+
+	// Products having each brand and category, by brand or category id
+	private final IdSet[] byBrand;
+	private final IdSet[] byCategory;
+
+	// Products with a price, cheapest first, and their prices
+	private final int[] byPrice;
+	private final int[] sortedPrice;
+
+	/**
+	 * @param brandNames: brand names, by brand id
+	 * @param categoryNames: category names, by category id
+	 * @param brand: each product's brand id, or -1
+	 * @param price: each product's price in cents, or -1
+	 * @param categoryStart: product i's categories are category[categoryStart[i]] up to
+	 * 						 category[categoryStart[i + 1]]
+	 * @param category: category ids
+	 */
+	private FacetIndex(String[] brandNames, String[] categoryNames, int[] brand, int[] price, int[] categoryStart,
+			int[] category) {
+		this.size = brand.length;
+		this.brandNames = brandNames;
+		this.categoryNames = categoryNames;
+		this.brand = brand;
+		this.price = price;
+		this.categoryStart = categoryStart;
+		this.category = category;
+
+		this.brandIds = ids(brandNames);
+		this.categoryIds = ids(categoryNames);
+
+		// Lists each brand's products, in id order
+		int[] brandStart = new int[brandNames.length + 1];
+		for (int id = 0; id < size; id++) {
+			if (brand[id] >= 0)
+				brandStart[brand[id] + 1]++;
+		}
+		byBrand = sets(brandStart, new int[brandNames.length], brand, identity(size), size);
+
+		// Lists each category's products, in id order
+		int[] owner = new int[category.length];
+		for (int id = 0; id < size; id++) {
+			for (int i = categoryStart[id]; i < categoryStart[id + 1]; i++)
+				owner[i] = id;
+		}
+		int[] catStart = new int[categoryNames.length + 1];
+		for (int c : category)
+			catStart[c + 1]++;
+		byCategory = sets(catStart, new int[categoryNames.length], category, owner, size);
+
+		// Sorts the products with a price by price
+		Integer[] priced = new Integer[size];
+		int count = 0;
+		for (int id = 0; id < size; id++) {
+			if (price[id] >= 0)
+				priced[count++] = id;
+		}
+		Arrays.sort(priced, 0, count, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(FacetIndex.this.price[a], FacetIndex.this.price[b]);
+			}
+		});
+		byPrice = new int[count];
+		sortedPrice = new int[count];
+		for (int i = 0; i < count; i++) {
+			byPrice[i] = priced[i];
+			sortedPrice[i] = price[priced[i]];
+		}
+	}
+
+	private static Map<String, Integer> ids(String[] names) {
+		Map<String, Integer> ids = new HashMap<String, Integer>(names.length * 2);
+		for (int i = 0; i < names.length; i++)
+			ids.put(names[i].toLowerCase(), i);
+		return ids;
+	}
+
+	private static int[] identity(int size) {
+		int[] ids = new int[size];
+		for (int i = 0; i < size; i++)
+			ids[i] = i;
+		return ids;
+	}
+
+	/**
+	 * Groups product ids by value
+	 *
+	 * @param start: start[v + 1] is the number of products with value v, turned into offsets here
+	 * @param fill: scratch space, one per value
+	 * @param value: values, -1 for none
+	 * @param product: product id of each value
+	 * @param size: number of products
+	 * @return IdSet[]: products having each value
+	 */
+	private static IdSet[] sets(int[] start, int[] fill, int[] value, int[] product, int size) {
+		for (int v = 1; v < start.length; v++)
+			start[v] += start[v - 1];
+		int[] grouped = new int[start[start.length - 1]];
+		for (int i = 0; i < value.length; i++) {
+			int v = value[i];
+			if (v >= 0)
+				grouped[start[v] + fill[v]++] = product[i];
+		}
+		IdSet[] sets = new IdSet[start.length - 1];
+		for (int v = 0; v < sets.length; v++)
+			sets[v] = IdSet.of(grouped, start[v], start[v + 1], size);
+		return sets;
+	}
+
+	/**
+	 * Set of product ids, stored as a sorted array when few products are in it and
+	 * as a bitmap over every product otherwise
+	 */
+	static final class IdSet {
+		private final int[] ids;
+		private final BitSet bits;
+		private final int cardinality;
+
+		private IdSet(int[] ids, BitSet bits, int cardinality) {
+			this.ids = ids;
+			this.bits = bits;
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * @param sorted: ids in increasing order
+		 * @param from: position in sorted of the set's first id
+		 * @param to: position in sorted just past the set's last id
+		 * @param universe: number of products
+		 * @return IdSet: the set, in whichever form is smaller
+		 */
+		static IdSet of(int[] sorted, int from, int to, int universe) {
+			int count = to - from;
+			// An id takes 32 bits in an array, and the bitmap takes one bit per product
+			if ((long) count * 32 < universe)
+				return new IdSet(Arrays.copyOfRange(sorted, from, to), null, count);
+			BitSet bits = new BitSet(universe);
+			for (int i = from; i < to; i++)
+				bits.set(sorted[i]);
+			return new IdSet(null, bits, count);
+		}
+
+		/**
+		 * Adds every id in the set to a bitmap
+		 *
+		 * @param target: the bitmap
+		 */
+		void addTo(BitSet target) {
+			if (bits != null)
+				target.or(bits);
+			else {
+				for (int id : ids)
+					target.set(id);
+			}
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+	}
+
+	/**
+	 * Works out which products a filter allows
+	 *
+	 * @param filter: the filter
+	 * @param ratings: current ratings, by the same ids
+	 * @return BitSet: the ids of the allowed products, or null if the filter allows every product
+	 */
+	public BitSet allowed(FacetFilter filter, KeywordIndex ratings) {
+		if (filter.isEmpty())
+			return null;
+
+		BitSet allowed = null;
+		if (!filter.getBrands().isEmpty())
+			allowed = intersect(allowed, union(filter.getBrands(), brandIds, byBrand));
+		if (!filter.getCategories().isEmpty())
+			allowed = intersect(allowed, union(filter.getCategories(), categoryIds, byCategory));
+		if (filter.hasPrice())
+			allowed = intersect(allowed, priceRange(filter.getMinPrice(), filter.getMaxPrice()));
+
+		double minRating = filter.getMinRating();
+		if (minRating > 0)
+			allowed = intersect(allowed, ratings.ratedAtLeast(minRating));
+		return allowed;
+	}
+
+	private static BitSet intersect(BitSet allowed, BitSet with) {
+		if (allowed == null)
+			return with;
+		allowed.and(with);
+		return allowed;
+	}
+
+	private BitSet union(Set<String> values, Map<String, Integer> ids, IdSet[] sets) {
+		BitSet union = new BitSet(size);
+		for (String value : values) {
+			Integer id = ids.get(value);
+			if (id != null)
+				sets[id].addTo(union);
+		}
+		return union;
+	}
+
+	/**
+	 * @param min: lowest price in dollars, or NaN
+	 * @param max: highest price in dollars, or NaN
+	 * @return BitSet: products priced within the range
+	 */
+	private BitSet priceRange(double min, double max) {
+		long low = Double.isNaN(min) ? Long.MIN_VALUE : (long) Math.ceil(min * 100 - 1e-6);
+		long high = Double.isNaN(max) ? Long.MAX_VALUE : (long) Math.floor(max * 100 + 1e-6);
+		BitSet range = new BitSet(size);
+		for (int i = firstAtLeast(low); i < sortedPrice.length && sortedPrice[i] <= high; i++)
+			range.set(byPrice[i]);
+		return range;
+	}
+
+	/**
+	 * @return int: position of the cheapest product priced at least cents
+	 */
+	private int firstAtLeast(long cents) {
+		int lo = 0;
+		int hi = sortedPrice.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sortedPrice[mid] < cents)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Counts the facets of a set of products, such as the candidates of a search
+	 *
+	 * @param ids: the products
+	 * @param ratings: current ratings, by the same ids
+	 * @return Map<String, Map<String, Integer>>: each facet's values mapped to the number of
+	 * 											  products with them; the most common brands and
+	 * 											  categories first, price ranges cheapest first,
+	 * 											  and the products rated at least each of 4 to 1 stars
+	 */
+	public Map<String, Map<String, Integer>> count(int[] ids, KeywordIndex ratings) {
+		Map<Integer, Integer> brands = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> categories = new HashMap<Integer, Integer>();
+		int[] prices = new int[PRICE_LABELS.length];
+		int[] stars = new int[RATING_STEPS.length];
+		for (int id : ids) {
+			if (brand[id] >= 0)
+				increment(brands, brand[id]);
+			for (int i = categoryStart[id]; i < categoryStart[id + 1]; i++)
+				increment(categories, category[i]);
+			if (price[id] >= 0) {
+				int range = 0;
+				while (range < PRICE_BOUNDS.length && price[id] >= PRICE_BOUNDS[range])
+					range++;
+				prices[range]++;
+			}
+			double average = ratings.getAverage(id);
+			for (int s = 0; s < RATING_STEPS.length; s++) {
+				if (average >= RATING_STEPS[s])
+					stars[s]++;
+			}
+		}
+
+		Map<String, Map<String, Integer>> counts = new LinkedHashMap<String, Map<String, Integer>>();
+		counts.put(BRAND, top(brands, brandNames));
+		counts.put(CATEGORY, top(categories, categoryNames));
+		Map<String, Integer> priceCounts = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < prices.length; i++) {
+			if (prices[i] > 0)
+				priceCounts.put(PRICE_LABELS[i], prices[i]);
+		}
+		counts.put(PRICE, priceCounts);
+		Map<String, Integer> ratingCounts = new LinkedHashMap<String, Integer>();
+		for (int s = 0; s < stars.length; s++) {
+			if (stars[s] > 0)
+				ratingCounts.put(RATING_STEPS[s] + "+", stars[s]);
+		}
+		counts.put(RATING, ratingCounts);
+		return counts;
+	}
+
+	private static void increment(Map<Integer, Integer> counts, int value) {
+		Integer count = counts.get(value);
+		counts.put(value, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * @return Map<String, Integer>: the TOP_VALUES most common values, most common first
+	 */
+	private static Map<String, Integer> top(final Map<Integer, Integer> counts, final String[] names) {
+		List<Integer> values = new ArrayList<Integer>(counts.keySet());
+		Collections.sort(values, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int byCount = Integer.compare(counts.get(b), counts.get(a));
+				return byCount != 0 ? byCount : names[a].compareTo(names[b]);
+			}
+		});
+		Map<String, Integer> top = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < values.size() && i < TOP_VALUES; i++)
+			top.put(names[values.get(i)], counts.get(values.get(i)));
+		return top;
+	}
+
+	/**
+	 * @param value: a brand name, matched ignoring case
+	 * @return int: number of products of that brand
+	 */
+	public int getBrandCount(String value) {
+		Integer id = brandIds.get(value.toLowerCase());
+		return id == null ? 0 : byBrand[id].cardinality();
+	}
+
+	/**
+	 * @param value: a category name, matched ignoring case
+	 * @return int: number of products in that category
+	 */
+	public int getCategoryCount(String value) {
+		Integer id = categoryIds.get(value.toLowerCase());
+		return id == null ? 0 : byCategory[id].cardinality();
+	}
+
+	/**
+	 * @param id: the product to look up
+	 * @return int: the product's price in cents, or -1 if it has none
+	 */
+	public int getPrice(int id) {
+		return price[id];
+	}
+
+	/**
+	 * @return int: number of products indexed
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the index's columns, read back by read
+	 *
+	 * @param out: stream to write to
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		writeStrings(out, brandNames);
+		writeStrings(out, categoryNames);
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeInt(brand[i]);
+			out.writeInt(price[i]);
+		}
+		writeInts(out, categoryStart);
+		writeInts(out, category);
+	}
+
+	/**
+	 * Reads an index written by writeTo, rebuilding the id sets from its columns
+	 *
+	 * @param buffer: buffer positioned at the start of the index, left positioned just past it
+	 * @return FacetIndex: the index
+	 */
+	static FacetIndex read(ByteBuffer buffer) {
+		String[] brandNames = readStrings(buffer);
+		String[] categoryNames = readStrings(buffer);
+		int size = buffer.getInt();
+		int[] brand = new int[size];
+		int[] price = new int[size];
+		for (int i = 0; i < size; i++) {
+			brand[i] = buffer.getInt();
+			price[i] = buffer.getInt();
+		}
+		int[] categoryStart = readInts(buffer);
+		int[] category = readInts(buffer);
+		return new FacetIndex(brandNames, categoryNames, brand, price, categoryStart, category);
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+		out.writeInt(strings.length);
+		for (String s : strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String[] readStrings(ByteBuffer buffer) {
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int v : values)
+			out.writeInt(v);
+	}
+
+	private static int[] readInts(ByteBuffer buffer) {
+		int[] values = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * values.length);
+		return values;
+	}
+
+	/**
+	 * Parses a price as written in the metadata, such as "$1,299.99" or "$5.00 - $9.00"
+	 *
+	 * @param value: the metadata's price field
+	 * @return int: the price in cents, the lower end of a range, or -1 if there is none
+	 */
+	static int parsePrice(Object value) {
+		double dollars;
+		if (value instanceof Number)
+			dollars = ((Number) value).doubleValue();
+		else if (value instanceof String) {
+			Matcher m = NUMBER.matcher(((String) value).replace(",", ""));
+			if (!m.find())
+				return -1;
+			dollars = Double.parseDouble(m.group());
+		} else
+			return -1;
+		if (!(dollars >= 0))
+			return -1;
+		return (int) Math.min(Integer.MAX_VALUE, Math.round(dollars * 100));
+	}
+
+	/**
+	 * Accumulates the facets of every product, in the same order as the ProductStore
+	 */
+	public static class Builder {
+		private final Map<String, Integer> brandIds = new HashMap<String, Integer>();
+		private final List<String> brandNames = new ArrayList<String>();
+		private final Map<String, Integer> categoryIds = new HashMap<String, Integer>();
+		private final List<String> categoryNames = new ArrayList<String>();
+		private final int[] brand;
+		private final int[] price;
+		private final int[] categoryStart;
+		private int[] category = new int[1024];
+		private int categories;
+		private int size;
+
+		/**
+		 * @param capacity: number of products that will be added
+		 */
+		public Builder(int capacity) {
+			brand = new int[capacity];
+			price = new int[capacity];
+			categoryStart = new int[capacity + 1];
+		}
+
+		/**
+		 * Adds a product's facets from its metadata, reading "brand", "price" and either
+		 * "category", a list of names, or "categories", a list of lists of names
+		 *
+		 * @param meta: the product's metadata
+		 * @return int: the product's id
+		 */
+		public int addProduct(JSONObject meta) {
+			int id = size++;
+			Object b = meta.get("brand");
+			brand[id] = b instanceof String && !((String) b).trim().isEmpty()
+					? intern((String) b, brandIds, brandNames)
+					: -1;
+			price[id] = parsePrice(meta.get("price"));
+
+			// Lists the product's categories once each
+			Set<Integer> ids = new LinkedHashSet<Integer>();
+			Object c = meta.get("category");
+			if (c == null)
+				c = meta.get("categories");
+			if (c instanceof JSONArray) {
+				for (Object entry : (JSONArray) c) {
+					if (entry instanceof JSONArray) {
+						for (Object name : (JSONArray) entry)
+							addCategory(ids, name);
+					} else
+						addCategory(ids, entry);
+				}
+			}
+			for (int cat : ids) {
+				if (categories == category.length)
+					category = Arrays.copyOf(category, categories * 2);
+				category[categories++] = cat;
+			}
+			categoryStart[id + 1] = categories;
+			return id;
+		}
+
+		private void addCategory(Set<Integer> ids, Object name) {
+			if (name instanceof String && !((String) name).trim().isEmpty())
+				ids.add(intern((String) name, categoryIds, categoryNames));
+		}
+
+		private static int intern(String name, Map<String, Integer> ids, List<String> names) {
+			String trimmed = name.trim();
+			String key = trimmed.toLowerCase();
+			Integer id = ids.get(key);
+			if (id == null) {
+				id = names.size();
+				ids.put(key, id);
+				names.add(trimmed);
+			}
+			return id;
+		}
+
+		public FacetIndex build() {
+			return new FacetIndex(brandNames.toArray(new String[brandNames.size()]),
+					categoryNames.toArray(new String[categoryNames.size()]), Arrays.copyOf(brand, size),
+					Arrays.copyOf(price, size), Arrays.copyOf(categoryStart, size + 1),
+					Arrays.copyOf(category, categories));
+		}
+	}
+}
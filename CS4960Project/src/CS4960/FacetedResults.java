@@ -0,0 +1,41 @@
+package CS4960;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of a filtered search, along with the facet counts of every product the
+ * search matched, see FacetIndex.count
+ *
+ * @author Brian Dong
+ *
+ */
+public class FacetedResults {
+
+	private final List<ProductResult> results;
+	private final Map<String, Map<String, Integer>> facets;
+	private final int matched;
+
+	/**
+	 * @param results: the results shown
+	 * @param facets: facet counts of the products matched
+	 * @param matched: number of products the counts cover
+	 */
+	public FacetedResults(List<ProductResult> results, Map<String, Map<String, Integer>> facets, int matched) {
+		this.results = results;
+		this.facets = facets;
+		this.matched = matched;
+	}
+
+	public List<ProductResult> getResults() {
+		return results;
+	}
+
+	public Map<String, Map<String, Integer>> getFacets() {
+		return facets;
+	}
+
+	public int getMatched() {
+		return matched;
+	}
+}
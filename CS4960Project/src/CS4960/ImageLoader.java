@@ -0,0 +1,323 @@
+package CS4960;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import CS4960.SearchMetrics.Counter;
+import CS4960.SearchMetrics.Stage;
+
+/**
+ * Fetches, decodes and shrinks product images off the Swing event thread, caching
+ * the resulting thumbnails in memory and on local disk
+ *
+ * Images are fetched concurrently by a bounded pool of threads, so one slow image host
+ * only delays its own images. Each thumbnail is cached in memory, least recently used
+ * first out, and as a PNG in the disk cache directory, oldest first out once the
+ * directory grows past its size limit. Concurrent requests for the same image share
+ * a single fetch
+ *
+ * Some Notes: Any URL java can open works, including file: URLs, and LocalImageServer
+ *             serves a directory of images over HTTP as an offline stand-in for the
+ *             real image hosts
+ *
+ * @author Brian Dong
+ *
+ */
+public class ImageLoader {
+
+	// Default settings
+	public static final String DEFAULT_CACHE_DIR = "Data/image_cache";
+	public static final int DEFAULT_THREADS = 8;
+	public static final int DEFAULT_MEMORY_ENTRIES = 512;
+	public static final long DEFAULT_DISK_BYTES = 64L * 1024 * 1024;
+
+	// Largest width or height of a thumbnail
+	public static final int THUMBNAIL_SIZE = 150;
+
+	// Network timeouts, in milliseconds
+	private static final int CONNECT_TIMEOUT = 3000;
+	private static final int READ_TIMEOUT = 5000;
+
+	/**
+	 * Receives a loaded image on the Swing event thread
+	 */
+	public interface Callback {
+		/**
+		 * @param image: the thumbnail, or null if the image could not be loaded
+		 */
+		void loaded(BufferedImage image);
+	}
+
+	private final ExecutorService pool;
+	private final File cacheDir;
+	private final long diskBytes;
+
+	// Thumbnails in memory, least recently used first
+	private final LinkedHashMap<String, BufferedImage> memory;
+
+	// Fetches currently running, by URL
+	private final ConcurrentHashMap<String, Future<BufferedImage>> inFlight = new ConcurrentHashMap<String, Future<BufferedImage>>();
+
+	/**
+	 * Creates an image loader with the default settings
+	 */
+	public ImageLoader() {
+		this(DEFAULT_THREADS, DEFAULT_MEMORY_ENTRIES, DEFAULT_CACHE_DIR, DEFAULT_DISK_BYTES);
+	}
+
+	/**
+	 * @param threads: number of images fetched at once
+	 * @param memoryEntries: number of thumbnails kept in memory
+	 * @param cacheDir: directory thumbnails are cached in, or null to not cache on disk
+	 * @param diskBytes: size the disk cache is trimmed back to
+	 */
+	public ImageLoader(int threads, final int memoryEntries, String cacheDir, long diskBytes) {
+		final AtomicInteger count = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "image-loader-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		memory = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+				return size() > memoryEntries;
+			}
+		};
+		this.cacheDir = cacheDir == null ? null : new File(cacheDir);
+		if (this.cacheDir != null)
+			this.cacheDir.mkdirs();
+		this.diskBytes = diskBytes;
+	}
+
+	/**
+	 * Loads an image in the background and hands its thumbnail to callback on the
+	 * Swing event thread
+	 *
+	 * Note: images already in memory are handed over straight away
+	 *
+	 * @param url: link to the image
+	 * @param callback: receives the thumbnail, or null if it could not be loaded
+	 */
+	public void load(final String url, final Callback callback) {
+		BufferedImage cached = fromMemory(url);
+		if (cached != null) {
+			SearchMetrics.global().increment(Counter.IMAGE_CACHE_HITS);
+			deliver(cached, callback);
+			return;
+		}
+
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				BufferedImage image = null;
+				try {
+					image = fetchShared(url);
+				} catch (Exception e) {
+					SearchMetrics.global().increment(Counter.IMAGE_FETCH_ERRORS);
+					System.out.println("Unable to load image '" + url + "'");
+				}
+				deliver(image, callback);
+			}
+		});
+	}
+
+	/**
+	 * Loads an image, waiting for it to be fetched if needed
+	 *
+	 * @param url: link to the image
+	 * @return BufferedImage: the thumbnail
+	 * @throws Exception
+	 */
+	public BufferedImage get(String url) throws Exception {
+		BufferedImage cached = fromMemory(url);
+		if (cached != null)
+			return cached;
+		return fetchShared(url);
+	}
+
+	/**
+	 * Fetches an image on the calling thread, or waits for the fetch already running
+	 * for it on another thread
+	 */
+	private BufferedImage fetchShared(final String url) throws Exception {
+		FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws Exception {
+				return fetch(url);
+			}
+		});
+		Future<BufferedImage> running = inFlight.putIfAbsent(url, task);
+		if (running != null)
+			return running.get();
+		try {
+			task.run();
+			return task.get();
+		} finally {
+			inFlight.remove(url);
+		}
+	}
+
+	private static void deliver(final BufferedImage image, final Callback callback) {
+		if (SwingUtilities.isEventDispatchThread())
+			callback.loaded(image);
+		else
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					callback.loaded(image);
+				}
+			});
+	}
+
+	private BufferedImage fromMemory(String url) {
+		synchronized (memory) {
+			return memory.get(url);
+		}
+	}
+
+	/**
+	 * Loads an image from the disk cache, or fetches and shrinks it and caches it
+	 */
+	private BufferedImage fetch(String url) throws IOException {
+		File cached = cacheDir == null ? null : new File(cacheDir, cacheName(url));
+		BufferedImage thumbnail = null;
+		if (cached != null && cached.isFile()) {
+			thumbnail = ImageIO.read(cached);
+			// Marks the file as recently used
+			cached.setLastModified(System.currentTimeMillis());
+		}
+
+		if (thumbnail != null)
+			SearchMetrics.global().increment(Counter.IMAGE_CACHE_HITS);
+		else {
+			long start = System.nanoTime();
+			URLConnection connection = new URL(url).openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			InputStream in = connection.getInputStream();
+			BufferedImage full;
+			try {
+				full = ImageIO.read(in);
+			} finally {
+				in.close();
+			}
+			if (full == null)
+				throw new IOException("Unreadable image '" + url + "'");
+			thumbnail = shrink(full);
+
+			if (cached != null) {
+				ImageIO.write(thumbnail, "png", cached);
+				trimDisk();
+			}
+			SearchMetrics.global().record(Stage.IMAGE_FETCH, start);
+		}
+
+		synchronized (memory) {
+			memory.put(url, thumbnail);
+		}
+		return thumbnail;
+	}
+
+	/**
+	 * Scales an image down to fit within THUMBNAIL_SIZE, keeping its aspect ratio
+	 */
+	static BufferedImage shrink(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(width, height));
+		int w = Math.max(1, (int) Math.round(width * scale));
+		int h = Math.max(1, (int) Math.round(height * scale));
+
+		BufferedImage thumbnail = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = thumbnail.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, w, h, null);
+		g.dispose();
+		return thumbnail;
+	}
+
+	/**
+	 * Deletes the least recently used thumbnails once the disk cache is over its limit
+	 */
+	private synchronized void trimDisk() {
+		File[] files = cacheDir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().endsWith(".png");
+			}
+		});
+		if (files == null)
+			return;
+
+		long total = 0;
+		for (File f : files)
+			total += f.length();
+		if (total <= diskBytes)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (int i = 0; i < files.length && total > diskBytes; i++) {
+			long length = files[i].length();
+			if (files[i].delete())
+				total -= length;
+		}
+	}
+
+	/**
+	 * @return String: the disk cache file name for an image URL
+	 */
+	private static String cacheName(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest)
+				name.append(String.format("%02x", b));
+			return name.append(".png").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Stops fetching images
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
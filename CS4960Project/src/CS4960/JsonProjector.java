@@ -0,0 +1,386 @@
+package CS4960;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streaming JSON parser that reads only a chosen set of top level fields of an
+ * object, straight from the UTF-8 bytes of a line
+ *
+ * Field names are matched against the raw bytes, and the values of fields that are
+ * not wanted (review text, descriptions, also-bought lists...) are stepped over
+ * without creating any objects, only their brackets and string quotes being tracked.
+ * Wanted values are decoded the same way json-simple decodes them: strings, Longs for
+ * whole numbers and Doubles otherwise, Booleans, null, and JSONArrays and JSONObjects
+ * for nested values
+ *
+ * Some Notes: The line must still be well formed, skipped values are checked only
+ *             as far as needed to find where they end
+ *
+ *             A projector keeps the position of the line being parsed, so a single
+ *             projector must not be used by more than one thread at a time
+ *
+ * @author Brian Dong
+ *
+ */
+public class JsonProjector {
+
+	// Wanted field names, and their UTF-8 bytes
+	private final String[] fields;
+	private final byte[][] names;
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+	// Line being parsed
+	private byte[] bytes;
+	private int pos;
+	private int end;
+
+	/**
+	 * @param fields: top level fields to read, all others are skipped
+	 */
+	public JsonProjector(Collection<String> fields) {
+		this.fields = fields.toArray(new String[fields.size()]);
+		this.names = new byte[this.fields.length][];
+		for (int i = 0; i < this.fields.length; i++) {
+			names[i] = this.fields[i].getBytes(StandardCharsets.UTF_8);
+			index.put(this.fields[i], i);
+		}
+	}
+
+	/**
+	 * Reads the wanted fields of the object in bytes start up to end
+	 *
+	 * @param bytes: buffer holding the line
+	 * @param start: offset of the line's first byte
+	 * @param end: offset just past the line's last byte
+	 * @param record: object the wanted fields are put in
+	 * @return JSONObject: record
+	 * @throws ParseException if the line is not a JSON object
+	 */
+	public <T extends JSONObject> T project(byte[] bytes, int start, int end, T record) throws ParseException {
+		this.bytes = bytes;
+		this.pos = start;
+		this.end = end;
+		try {
+			skipWhitespace();
+			expect('{');
+			skipWhitespace();
+			if (peek() == '}')
+				pos++;
+			else {
+				while (true) {
+					skipWhitespace();
+					int field = key();
+					skipWhitespace();
+					expect(':');
+					skipWhitespace();
+					if (field >= 0)
+						put(record, fields[field], value());
+					else
+						skipValue();
+					skipWhitespace();
+					byte c = next();
+					if (c == '}')
+						break;
+					if (c != ',')
+						throw unexpected(c);
+				}
+			}
+			skipWhitespace();
+			if (pos != end)
+				throw unexpected(bytes[pos]);
+			return record;
+		} finally {
+			this.bytes = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void put(JSONObject record, String key, Object value) {
+		record.put(key, value);
+	}
+
+	/**
+	 * Reads an object key
+	 *
+	 * @return int: the wanted field it names, or -1 if it is not wanted
+	 */
+	private int key() throws ParseException {
+		expect('"');
+		int from = pos;
+		boolean escaped = false;
+		while (true) {
+			byte c = next();
+			if (c == '"')
+				break;
+			if (c == '\\') {
+				escaped = true;
+				next();
+			}
+		}
+		if (escaped) {
+			// Rare, so just decodes the key
+			pos = from - 1;
+			Integer field = index.get(string());
+			return field == null ? -1 : field;
+		}
+		int length = pos - 1 - from;
+		for (int f = 0; f < names.length; f++) {
+			byte[] name = names[f];
+			if (name.length != length)
+				continue;
+			int i = 0;
+			while (i < length && bytes[from + i] == name[i])
+				i++;
+			if (i == length)
+				return f;
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the value at the current position
+	 */
+	private Object value() throws ParseException {
+		byte c = peek();
+		switch (c) {
+		case '"':
+			return string();
+		case '{':
+			return object();
+		case '[':
+			return array();
+		case 't':
+			literal("true");
+			return Boolean.TRUE;
+		case 'f':
+			literal("false");
+			return Boolean.FALSE;
+		case 'n':
+			literal("null");
+			return null;
+		default:
+			return number();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject object() throws ParseException {
+		JSONObject obj = new JSONObject();
+		expect('{');
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return obj;
+		}
+		while (true) {
+			skipWhitespace();
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			obj.put(key, value());
+			skipWhitespace();
+			byte c = next();
+			if (c == '}')
+				return obj;
+			if (c != ',')
+				throw unexpected(c);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONArray array() throws ParseException {
+		JSONArray array = new JSONArray();
+		expect('[');
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return array;
+		}
+		while (true) {
+			skipWhitespace();
+			array.add(value());
+			skipWhitespace();
+			byte c = next();
+			if (c == ']')
+				return array;
+			if (c != ',')
+				throw unexpected(c);
+		}
+	}
+
+	private String string() throws ParseException {
+		expect('"');
+		int from = pos;
+		// Strings without escapes are decoded in one go
+		while (true) {
+			byte c = next();
+			if (c == '"')
+				return new String(bytes, from, pos - 1 - from, StandardCharsets.UTF_8);
+			if (c == '\\')
+				break;
+		}
+
+		pos--;
+		StringBuilder s = new StringBuilder(new String(bytes, from, pos - from, StandardCharsets.UTF_8));
+		int run = pos;
+		while (true) {
+			byte c = next();
+			if (c == '"') {
+				s.append(new String(bytes, run, pos - 1 - run, StandardCharsets.UTF_8));
+				return s.toString();
+			}
+			if (c != '\\')
+				continue;
+			s.append(new String(bytes, run, pos - 1 - run, StandardCharsets.UTF_8));
+			byte e = next();
+			switch (e) {
+			case '"':
+			case '\\':
+			case '/':
+				s.append((char) e);
+				break;
+			case 'b':
+				s.append('\b');
+				break;
+			case 'f':
+				s.append('\f');
+				break;
+			case 'n':
+				s.append('\n');
+				break;
+			case 'r':
+				s.append('\r');
+				break;
+			case 't':
+				s.append('\t');
+				break;
+			case 'u':
+				if (pos + 4 > end)
+					throw unexpected(e);
+				try {
+					s.append((char) Integer.parseInt(new String(bytes, pos, 4, StandardCharsets.US_ASCII), 16));
+				} catch (NumberFormatException ex) {
+					throw unexpected(e);
+				}
+				pos += 4;
+				break;
+			default:
+				throw unexpected(e);
+			}
+			run = pos;
+		}
+	}
+
+	private Object number() throws ParseException {
+		int from = pos;
+		boolean whole = true;
+		while (pos < end) {
+			byte c = bytes[pos];
+			if (c == '.' || c == 'e' || c == 'E')
+				whole = false;
+			else if (c != '-' && c != '+' && (c < '0' || c > '9'))
+				break;
+			pos++;
+		}
+		if (pos == from)
+			throw unexpected(peek());
+		String text = new String(bytes, from, pos - from, StandardCharsets.US_ASCII);
+		try {
+			return whole ? (Object) Long.valueOf(text) : (Object) Double.valueOf(text);
+		} catch (NumberFormatException e) {
+			throw new ParseException(from, ParseException.ERROR_UNEXPECTED_TOKEN, text);
+		}
+	}
+
+	private void literal(String word) throws ParseException {
+		for (int i = 0; i < word.length(); i++) {
+			byte c = next();
+			if (c != word.charAt(i))
+				throw unexpected(c);
+		}
+	}
+
+	/**
+	 * Steps over the value at the current position without decoding it
+	 */
+	private void skipValue() throws ParseException {
+		byte c = peek();
+		if (c == '"') {
+			skipString();
+			return;
+		}
+		if (c != '{' && c != '[') {
+			// Numbers and literals run until the next delimiter
+			int from = pos;
+			while (pos < end && bytes[pos] != ',' && bytes[pos] != '}' && bytes[pos] != ']' && !whitespace(bytes[pos]))
+				pos++;
+			if (pos == from)
+				throw unexpected(c);
+			return;
+		}
+
+		int depth = 0;
+		do {
+			c = peek();
+			if (c == '"')
+				skipString();
+			else {
+				pos++;
+				if (c == '{' || c == '[')
+					depth++;
+				else if (c == '}' || c == ']')
+					depth--;
+			}
+		} while (depth > 0);
+	}
+
+	private void skipString() throws ParseException {
+		expect('"');
+		while (true) {
+			byte c = next();
+			if (c == '"')
+				return;
+			if (c == '\\')
+				next();
+		}
+	}
+
+	private void skipWhitespace() {
+		while (pos < end && whitespace(bytes[pos]))
+			pos++;
+	}
+
+	private static boolean whitespace(byte c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private void expect(char expected) throws ParseException {
+		byte c = next();
+		if (c != expected)
+			throw unexpected(c);
+	}
+
+	private byte peek() throws ParseException {
+		if (pos >= end)
+			throw new ParseException(pos, ParseException.ERROR_UNEXPECTED_EXCEPTION, "end of line");
+		return bytes[pos];
+	}
+
+	private byte next() throws ParseException {
+		byte c = peek();
+		pos++;
+		return c;
+	}
+
+	private ParseException unexpected(byte c) {
+		return new ParseException(pos, ParseException.ERROR_UNEXPECTED_CHAR, Character.valueOf((char) (c & 0xff)));
+	}
+}
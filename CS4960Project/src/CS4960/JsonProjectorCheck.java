@@ -0,0 +1,214 @@
+package CS4960;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Checks that a JsonProjector reads lines the same way json-simple does
+ *
+ * Each line is parsed in full by json-simple and projected by a JsonProjector, and
+ * the projected fields are compared with the same fields of the full parse. A line
+ * one parser rejects must be rejected by the other too. The built in lines cover
+ * escapes, unicode escapes of surrogate pairs, raw UTF-8, escaped keys, skipped nested
+ * objects and arrays holding brackets in strings, numbers in exponent form, literals,
+ * and lines truncated partway through a value, as the last line of a file being
+ * written may be
+ *
+ * Some Notes: A file's lines are checked with both REVIEW_FIELDS and META_FIELDS
+ *             projected, after the built in lines. Any difference is printed and
+ *             the check exits with status 1
+ *
+ * Usage: JsonProjectorCheck [jsonFile]
+ *
+ * @author Brian Dong
+ *
+ */
+public class JsonProjectorCheck {
+
+	// Fields projected from the built in lines
+	private static final List<String> FIELDS = Arrays.asList("asin", "overall", "summary", "price", "categories",
+			"verified", "style");
+
+	private static final String[] LINES = {
+			"{\"asin\":\"B001\",\"overall\":5.0,\"summary\":\"Great\"}",
+			"  { \"asin\" : \"B002\" ,\t\"overall\" : 4 , \"summary\" : null }  ",
+			"{}",
+			"{\"reviewText\":\"all skipped\",\"helpful\":[0,0]}",
+			// Escapes
+			"{\"asin\":\"B003\",\"summary\":\"He said \\\"hi\\\" \\\\ \\/ \\b\\f\\n\\r\\t done\"}",
+			"{\"asin\":\"B004\",\"reviewText\":\"skip \\\"quoted\\\" \\\\\",\"summary\":\"\\\\\"}",
+			// Unicode escapes, surrogate pairs and raw UTF-8
+			"{\"asin\":\"B005\",\"summary\":\"caf\\u00e9 \\ud83d\\ude00 \\u0041\\u00DF\"}",
+			"{\"asin\":\"B006\",\"summary\":\"caf\u00e9 \uD83D\uDE00 \u65E5\u672C\"}",
+			"{\"asin\":\"B007\",\"reviewText\":\"\\ud83d\\ude00 skipped\",\"summary\":\"\\u0022quoted\\u0022\"}",
+			// Escaped keys
+			"{\"as\\u0069n\":\"B008\",\"su\\u006dmary\":\"escaped key\",\"re\\u0076iew\":1}",
+			// Nested values, skipped and kept
+			"{\"asin\":\"B009\",\"helpful\":[2,[3,{\"a\":\"}]\"}]],\"related\":{\"also_bought\":[\"B1\",\"B2\"],"
+					+ "\"x\":{\"y\":[],\"z\":{}}},\"overall\":3.0}",
+			"{\"asin\":\"B010\",\"categories\":[[\"Books\",\"Fiction\"],[]],\"style\":{\"Format:\":\" Paperback\","
+					+ "\"n\":[1,2.5,null,true]}}",
+			"{\"asin\":\"B011\",\"skip\":{\"s\":\"[{\\\"\"},\"summary\":\"after\"}",
+			// Numbers
+			"{\"asin\":\"B012\",\"overall\":1E+0,\"price\":1.5e2,\"skipped\":-2E-3,\"other\":12}",
+			"{\"asin\":\"B013\",\"overall\":-0,\"price\":0.000125,\"summary\":\"n\"}",
+			"{\"asin\":\"B014\",\"overall\":4,\"price\":9007199254740993}",
+			"{\"asin\":\"B015\",\"price\":2.5E-5,\"verified\":true,\"skipped\":false,\"also\":null}",
+			// Truncated last lines
+			"{\"asin\":\"B016\",\"overall\":5.0,\"summ",
+			"{\"asin\":\"B017\",\"summary\":\"cut off",
+			"{\"asin\":\"B018\",\"reviewText\":\"cut off in a skipped value",
+			"{\"asin\":\"B019\",\"helpful\":[1,2",
+			"{\"asin\":\"B020\",\"related\":{\"also_bought\":[\"B1\"",
+			"{\"asin\":\"B021\",\"summary\":\"esc\\u00",
+			"{\"asin\":\"B022\",\"overall\":",
+			"{\"asin\":\"B023\"",
+			"{", };
+
+	private final JSONParser parser = new JSONParser();
+	private final JsonProjector projector;
+	private final List<String> fields;
+
+	private int checked;
+	private int differences;
+
+	/**
+	 * @param fields: fields to project and compare
+	 */
+	public JsonProjectorCheck(List<String> fields) {
+		this.fields = fields;
+		this.projector = new JsonProjector(fields);
+	}
+
+	/**
+	 * Parses a line both ways and prints it if the projected fields differ
+	 *
+	 * @param line: the line, without its newline
+	 * @return boolean: whether both parsers agreed
+	 */
+	public boolean check(String line) {
+		checked++;
+		String expected = describe(full(line));
+		String actual = describe(projected(line));
+		if (expected.equals(actual))
+			return true;
+		differences++;
+		System.out.println("Difference in: " + line);
+		System.out.println("  json-simple:   " + expected);
+		System.out.println("  JsonProjector: " + actual);
+		return false;
+	}
+
+	/**
+	 * Reads the line with json-simple and keeps only the projected fields
+	 *
+	 * @return JSONObject: the fields, or null if the line was rejected
+	 */
+	@SuppressWarnings("unchecked")
+	private JSONObject full(String line) {
+		Object parsed;
+		try {
+			parsed = parser.parse(line);
+		} catch (ParseException e) {
+			return null;
+		} catch (Error e) {
+			// json-simple's scanner reports some bad input as an Error
+			return null;
+		}
+		if (!(parsed instanceof JSONObject))
+			return null;
+		JSONObject obj = (JSONObject) parsed;
+		JSONObject kept = new JSONObject();
+		for (String field : fields) {
+			if (obj.containsKey(field))
+				kept.put(field, obj.get(field));
+		}
+		return kept;
+	}
+
+	/**
+	 * @return JSONObject: the fields read by the projector, or null if the line was rejected
+	 */
+	private JSONObject projected(String line) {
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		try {
+			return projector.project(bytes, 0, bytes.length, new JSONObject());
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Describes a result so that values of different types never compare equal,
+	 * a Long 5 and a Double 5.0 being told apart
+	 */
+	private static String describe(Object value) {
+		if (value == null)
+			return "null";
+		if (value instanceof JSONObject) {
+			StringBuilder s = new StringBuilder("{");
+			for (Object key : new TreeSet<Object>(((JSONObject) value).keySet()))
+				s.append(key).append('=').append(describe(((JSONObject) value).get(key))).append(' ');
+			return s.append('}').toString();
+		}
+		if (value instanceof List) {
+			StringBuilder s = new StringBuilder("[");
+			for (Object item : (List<?>) value)
+				s.append(describe(item)).append(' ');
+			return s.append(']').toString();
+		}
+		return value.getClass().getSimpleName() + ":" + value;
+	}
+
+	public int getChecked() {
+		return checked;
+	}
+
+	public int getDifferences() {
+		return differences;
+	}
+
+	public static void main(String[] args) throws IOException {
+		JsonProjectorCheck builtIn = new JsonProjectorCheck(FIELDS);
+		for (String line : LINES)
+			builtIn.check(line);
+		System.out.println("Checked " + builtIn.getChecked() + " built in lines, " + builtIn.getDifferences()
+				+ " differences");
+		int differences = builtIn.getDifferences();
+
+		if (args.length > 0) {
+			Set<String> fields = new LinkedHashSet<String>(CatalogLoader.REVIEW_FIELDS);
+			fields.addAll(CatalogLoader.META_FIELDS);
+			JsonProjectorCheck file = new JsonProjectorCheck(new ArrayList<String>(fields));
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.trim().isEmpty())
+						file.check(line);
+				}
+			} finally {
+				reader.close();
+			}
+			System.out.println("Checked " + file.getChecked() + " lines of '" + args[0] + "', "
+					+ file.getDifferences() + " differences");
+			differences += file.getDifferences();
+		}
+		if (differences > 0)
+			System.exit(1);
+	}
+}
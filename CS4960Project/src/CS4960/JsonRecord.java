@@ -0,0 +1,35 @@
+package CS4960;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Some of the fields of a JSON line read by a JsonProjector, along with where the
+ * whole line is in its file, so the full record can be read back if ever needed
+ *
+ * @author Brian Dong
+ *
+ */
+public class JsonRecord extends JSONObject {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long offset;
+	private final int length;
+
+	/**
+	 * @param offset: offset in its file of the line's first byte
+	 * @param length: number of bytes in the line, not counting its newline
+	 */
+	public JsonRecord(long offset, int length) {
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+}
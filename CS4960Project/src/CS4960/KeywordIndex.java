@@ -0,0 +1,268 @@
+package CS4960;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-product review summary data, computed once as reviews are loaded instead of
+ * scanning a product's reviews for every search result
+ *
+ * For each product id the index keeps the positive and negative summary picked for
+ * its keywords, the finished keyword string shown to the user, a histogram of its star
+ * ratings, and its review count and rating total, from which the average is derived
+ *
+ * Some Notes: Keywords are picked exactly as extractKeywords always has: the first 4-5
+ *             star and the first 1-2 star review, in file order, whose summary is not
+ *             empty and does not contain "Star"
+ *
+ *             Reviews may be added at any time. Writers are serialized on the index,
+ *             while readers never lock; the review count and rating total are packed
+ *             into a single long so an average is never read half updated. The one
+ *             exception is ratedAtLeast, which copies the rating buckets under the
+ *             writers' lock
+ *
+ *             The ids of the products averaging at least s stars are kept as a
+ *             bitmap for every whole s from 1 to STARS, moved as each review is
+ *             added, so a minimum rating filter never looks at every product
+ *
+ * @author Brian Dong
+ *
+ */
+public class KeywordIndex {
+
+	// Number of star ratings tracked by the histogram
+	public static final int STARS = 5;
+
+	// Products' chosen summaries, and the keyword strings built from them
+	private final AtomicReferenceArray<String> positive;
+	private final AtomicReferenceArray<String> negative;
+	private final AtomicReferenceArray<String> keywords;
+
+	// STARS counts per product, entry id * STARS + (stars - 1)
+	private final AtomicIntegerArray histogram;
+
+	// Review count in the high 32 bits and rating total in the low 32 bits, per product
+	private final AtomicLongArray totals;
+
+	// atLeast[s - 1] holds the ids of the products averaging at least s stars, guarded by this
+	private final BitSet[] atLeast;
+
+	/**
+	 * Creates an empty index over size products
+	 *
+	 * @param size: number of products
+	 */
+	public KeywordIndex(int size) {
+		positive = new AtomicReferenceArray<String>(size);
+		negative = new AtomicReferenceArray<String>(size);
+		keywords = new AtomicReferenceArray<String>(size);
+		histogram = new AtomicIntegerArray(size * STARS);
+		totals = new AtomicLongArray(size);
+		atLeast = new BitSet[STARS];
+		for (int s = 0; s < STARS; s++)
+			atLeast[s] = new BitSet(size);
+		for (int i = 0; i < size; i++)
+			keywords.set(i, "");
+	}
+
+	/**
+	 * @return int: number of products in the index
+	 */
+	public int size() {
+		return totals.length();
+	}
+
+	/**
+	 * @param overall: a review's rating as written in the review file
+	 * @return int: the rating rounded to whole stars, or 0 if it is not a rating from 1 to STARS
+	 */
+	public static int stars(double overall) {
+		long stars = Math.round(overall);
+		return stars >= 1 && stars <= STARS ? (int) stars : 0;
+	}
+
+	/**
+	 * Adds a review to a product, updating its rating and, if it has none yet, its
+	 * positive or negative keywords
+	 *
+	 * Note: ratings are clamped to 1 to STARS, so a bad rating can never corrupt the
+	 * packed review count; callers should reject them first, see stars
+	 *
+	 * @param id: the product's id
+	 * @param overall: the review's star rating
+	 * @param summary: the review's summary, may be null
+	 */
+	public synchronized void addReview(int id, int overall, String summary) {
+		int stars = Math.max(1, Math.min(STARS, overall));
+		histogram.incrementAndGet(id * STARS + stars - 1);
+		totals.addAndGet(id, (1L << 32) + stars);
+		bucket(id);
+
+		// Picks the review's summary as a keyword if the product needs one
+		if (summary == null || summary.isEmpty() || summary.contains("Star")) // Removes common, unhelpful summaries
+			return;
+		if (stars >= 4 && positive.get(id) == null)
+			positive.set(id, summary);
+		else if (stars < 3 && negative.get(id) == null)
+			negative.set(id, summary);
+		else
+			return;
+		keywords.set(id, format(positive.get(id), negative.get(id)));
+	}
+
+	/**
+	 * Moves a product into the rating buckets its current average reaches, and out of
+	 * the rest. Callers must hold the lock
+	 */
+	private void bucket(int id) {
+		double average = getAverage(id);
+		for (int s = 1; s <= STARS; s++)
+			atLeast[s - 1].set(id, average >= s);
+	}
+
+	/**
+	 * Finds the products whose average rating is at least minRating
+	 *
+	 * Note: a whole minRating is a copy of its bucket. Otherwise the bucket below it
+	 * is copied and only the products not in the bucket above it, those averaging
+	 * between the two, have their averages checked
+	 *
+	 * @param minRating: the minimum average rating
+	 * @return BitSet: the ids of the products rated at least minRating, owned by the caller
+	 */
+	public synchronized BitSet ratedAtLeast(double minRating) {
+		if (minRating > STARS)
+			return new BitSet();
+		int below = Math.max(1, (int) Math.floor(minRating));
+		BitSet rated = (BitSet) atLeast[below - 1].clone();
+		if (minRating <= below)
+			return rated;
+
+		BitSet between = (BitSet) rated.clone();
+		between.andNot(atLeast[below]);
+		for (int id = between.nextSetBit(0); id >= 0; id = between.nextSetBit(id + 1)) {
+			if (!(getAverage(id) >= minRating))
+				rated.clear(id);
+		}
+		return rated;
+	}
+
+	/**
+	 * Creates the keyword string shown to the user, only populating parts where a
+	 * keyword was picked
+	 */
+	private static String format(String pos, String neg) {
+		StringBuilder built = new StringBuilder();
+		if (pos != null)
+			built.append("What 4-5 Stars Say: ").append(pos);
+		if (neg != null)
+			built.append("   What 1-2 Stars Say: ").append(neg);
+		return built.toString();
+	}
+
+	/**
+	 * @param id: the product to look up
+	 * @return String: the product's positive and negative keywords, may be empty
+	 */
+	public String getKeywords(int id) {
+		return keywords.get(id);
+	}
+
+	/**
+	 * @param id: the product to look up
+	 * @return double: the product's average star rating
+	 */
+	public double getAverage(int id) {
+		long packed = totals.get(id);
+		return (double) (packed & 0xffffffffL) / (packed >>> 32);
+	}
+
+	/**
+	 * @param id: the product to look up
+	 * @return int: the product's number of reviews
+	 */
+	public int getReviewCount(int id) {
+		return (int) (totals.get(id) >>> 32);
+	}
+
+	/**
+	 * @param id: the product to look up
+	 * @return int[] counts: counts[s - 1] is the product's number of s star reviews
+	 */
+	public int[] getHistogram(int id) {
+		int[] counts = new int[STARS];
+		for (int s = 0; s < STARS; s++)
+			counts[s] = histogram.get(id * STARS + s);
+		return counts;
+	}
+
+	/**
+	 * Writes the index, read back by read
+	 *
+	 * @param out: stream to write to
+	 * @throws IOException
+	 */
+	synchronized void writeTo(DataOutputStream out) throws IOException {
+		int size = size();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++)
+			out.writeLong(totals.get(i));
+		for (int i = 0; i < size * STARS; i++)
+			out.writeInt(histogram.get(i));
+		for (int i = 0; i < size; i++) {
+			writeString(out, positive.get(i));
+			writeString(out, negative.get(i));
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads an index written by writeTo into memory, so it may keep taking new reviews
+	 *
+	 * @param buffer: buffer positioned at the start of the index, left positioned just past it
+	 * @return KeywordIndex: the index
+	 */
+	static KeywordIndex read(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		KeywordIndex index = new KeywordIndex(size);
+		for (int i = 0; i < size; i++)
+			index.totals.set(i, buffer.getLong());
+		for (int i = 0; i < size * STARS; i++)
+			index.histogram.set(i, buffer.getInt());
+		for (int i = 0; i < size; i++) {
+			String pos = readString(buffer);
+			String neg = readString(buffer);
+			index.positive.set(i, pos);
+			index.negative.set(i, neg);
+			index.keywords.set(i, format(pos, neg));
+		}
+		// The rating buckets are derived from the totals, so they are rebuilt rather than stored
+		for (int i = 0; i < size; i++)
+			index.bucket(i);
+		return index;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,94 @@
+package CS4960;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies, with fixed bucket bounds from 50 microseconds
+ * to 10 seconds
+ *
+ * Recording a latency is a handful of atomic increments, so it is cheap enough to do
+ * for every stage of every query. Percentiles are estimated from the buckets, as the
+ * upper bound of the bucket the percentile falls in
+ *
+ * @author Brian Dong
+ *
+ */
+public class LatencyHistogram {
+
+	// Upper bounds of the buckets, in nanoseconds, with a final bucket for anything longer
+	static final long[] BOUNDS = { 50000L, 100000L, 250000L, 500000L, 1000000L, 2500000L, 5000000L, 10000000L,
+			25000000L, 50000000L, 100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L,
+			10000000000L };
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * @param nanos: a latency, in nanoseconds
+	 */
+	public void record(long nanos) {
+		int b = 0;
+		while (b < BOUNDS.length && nanos > BOUNDS[b])
+			b++;
+		buckets.incrementAndGet(b);
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+	}
+
+	/**
+	 * @return long: number of latencies recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return long: total of every latency recorded, in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @param b: a bucket, BOUNDS.length being the bucket for anything longer than every bound
+	 * @return long: number of latencies recorded in the bucket
+	 */
+	public long getBucket(int b) {
+		return buckets.get(b);
+	}
+
+	/**
+	 * @return double: average latency, in nanoseconds
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param p: the percentile, between 0 and 1
+	 * @return long: upper bound of the bucket the percentile falls in, in nanoseconds,
+	 * 				 or Long.MAX_VALUE if it is past the last bound
+	 */
+	public long getPercentile(double p) {
+		long n = 0;
+		long[] counts = new long[buckets.length()];
+		for (int b = 0; b < counts.length; b++) {
+			counts[b] = buckets.get(b);
+			n += counts[b];
+		}
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(p * n);
+		long seen = 0;
+		for (int b = 0; b < BOUNDS.length; b++) {
+			seen += counts[b];
+			if (seen >= rank)
+				return BOUNDS[b];
+		}
+		return Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,210 @@
+package CS4960;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import CS4960.SearchMetrics.Counter;
+
+/**
+ * Load test replaying a query mix against a search service at a fixed rate, and
+ * reporting throughput, tail latency and heap usage
+ *
+ * Queries are sent at the target rate whether or not earlier ones have finished,
+ * as users would send them, and run on a pool of worker threads. Each query's
+ * latency is measured from when it was due to be sent rather than when a worker
+ * picked it up, so time spent queued behind slow queries counts against it and an
+ * overloaded service shows up as growing latency instead of a lower sending rate
+ *
+ * Some Notes: Queries are taken from the query file in a random order, a quarter
+ *             of them sorted by rating and the rest by relevance. Repeated queries
+ *             are answered from the result cache, as they would be in real traffic
+ *
+ *             Heap usage is sampled every second while the test runs, and measured
+ *             again after a full collection once it ends
+ *
+ * Usage: LoadDriver <queryFile> <qps> <seconds> [dataDir] [threads]
+ *        dataDir is a directory written by SyntheticCatalog, the default data
+ *        files are searched if it is left out
+ *
+ * @author Brian Dong
+ *
+ */
+public class LoadDriver {
+
+	// Share of queries sorted by rating
+	private static final double RATING_SHARE = 0.25;
+
+	// Longest wait for queries still running once sending stops
+	private static final long DRAIN_SECONDS = 60;
+
+	private static final long SEED = 4960;
+
+	private final SearchService service;
+	private final int threads;
+
+	/**
+	 * @param service: the search service to load
+	 * @param threads: number of queries run at once
+	 */
+	public LoadDriver(SearchService service, int threads) {
+		this.service = service;
+		this.threads = threads;
+	}
+
+	/**
+	 * Sends queries at a fixed rate for a length of time and reports how the service held up
+	 *
+	 * @param queries: the query mix
+	 * @param qps: queries sent per second
+	 * @param seconds: how long to send queries for
+	 * @throws InterruptedException
+	 */
+	public void run(List<BatchRunner.Query> queries, double qps, int seconds) throws InterruptedException {
+		int total = (int) Math.min(Integer.MAX_VALUE - 8, Math.round(qps * seconds));
+		final long[] latencies = new long[total];
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicLong lastFinish = new AtomicLong();
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long peakHeap = memory.getHeapMemoryUsage().getUsed();
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long cacheHits = SearchMetrics.global().get(Counter.RESULT_CACHE_HITS);
+		long cacheMisses = SearchMetrics.global().get(Counter.RESULT_CACHE_MISSES);
+
+		Random random = new Random(SEED);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long interval = (long) (1e9 / qps);
+		long start = System.nanoTime();
+		long nextSample = start;
+		try {
+			for (int i = 0; i < total; i++) {
+				// Waits until this query is due, sampling the heap while idle
+				final long due = start + i * interval;
+				long now;
+				while ((now = System.nanoTime()) < due) {
+					if (now >= nextSample) {
+						peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+						nextSample += TimeUnit.SECONDS.toNanos(1);
+					}
+					LockSupport.parkNanos(Math.min(due - now, TimeUnit.MILLISECONDS.toNanos(10)));
+				}
+
+				final int slot = i;
+				final String query = queries.get(random.nextInt(queries.size())).text;
+				final SortMode sort = random.nextDouble() < RATING_SHARE ? SortMode.RATING : SortMode.RELEVANCE;
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							service.search(query, sort);
+						} catch (Exception e) {
+							failed.incrementAndGet();
+						}
+						long finish = System.nanoTime();
+						latencies[slot] = finish - due;
+						completed.incrementAndGet();
+						long last;
+						while ((last = lastFinish.get()) < finish && !lastFinish.compareAndSet(last, finish))
+							;
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+		}
+		long sent = System.nanoTime() - start;
+		if (!pool.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+			System.out.println("Gave up waiting for " + (total - completed.get()) + " queries still running");
+			pool.shutdownNow();
+		}
+		peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+
+		// Reports on every query that finished
+		int done = completed.get();
+		long[] finished = new long[done];
+		int n = 0;
+		for (int i = 0; i < total && n < done; i++) {
+			if (latencies[i] > 0)
+				finished[n++] = latencies[i];
+		}
+		finished = Arrays.copyOf(finished, n);
+		double elapsed = (Math.max(lastFinish.get(), start + sent) - start) / 1e9;
+		long hits = SearchMetrics.global().get(Counter.RESULT_CACHE_HITS) - cacheHits;
+		long misses = SearchMetrics.global().get(Counter.RESULT_CACHE_MISSES) - cacheMisses;
+
+		System.out.println("Sent " + total + " queries at " + String.format("%.1f", total / (sent / 1e9))
+				+ " qps on " + threads + " threads, " + done + " completed in " + String.format("%.2f", elapsed)
+				+ "s (" + String.format("%.1f", done / elapsed) + " qps)"
+				+ (failed.get() > 0 ? ", " + failed.get() + " failed" : ""));
+		System.out.println("Latency " + BatchRunner.percentiles(finished) + tail(finished));
+		System.out.println("Result cache hit rate " + String.format("%.1f%%", 100.0 * hits / Math.max(1, hits + misses)));
+
+		System.gc();
+		System.out.println("Heap peak " + megabytes(peakHeap) + ", after GC " + megabytes(memory.getHeapMemoryUsage().getUsed())
+				+ ", max " + megabytes(memory.getHeapMemoryUsage().getMax()) + "; " + (gcCount() - gcCount)
+				+ " collections taking " + (gcMillis() - gcMillis) + "ms");
+	}
+
+	/**
+	 * @return String: the 99.9th percentile, once there are enough latencies for it to differ from the maximum
+	 */
+	private static String tail(long[] nanos) {
+		if (nanos.length < 1000)
+			return "";
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		return " p99.9 " + BatchRunner.millis(sorted[BatchRunner.index(sorted.length, 0.999)]);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+
+	private static String megabytes(long bytes) {
+		return bytes < 0 ? "n/a" : (bytes >> 20) + "MB";
+	}
+
+	/**
+	 * Runs a load test against a generated catalog or the default data files
+	 *
+	 * @param args: query file, target qps, seconds, and optionally the data directory and threads
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: LoadDriver <queryFile> <qps> <seconds> [dataDir] [threads]");
+			return;
+		}
+		double qps = Double.parseDouble(args[1]);
+		int seconds = Integer.parseInt(args[2]);
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+		List<BatchRunner.Query> queries = BatchRunner.readQueries(args[0]);
+		System.out.println("Read " + queries.size() + " queries from '" + args[0] + "'");
+		SearchService service = args.length > 3 ? SyntheticCatalog.open(new File(args[3])) : SearchService.open();
+		new LoadDriver(service, threads).run(queries, qps, seconds);
+	}
+}
@@ -0,0 +1,116 @@
+package CS4960;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a directory of images over HTTP on localhost, as an offline stand-in for
+ * the product image hosts
+ *
+ * Each response can be held back by a fixed delay, to see how the GUI behaves when
+ * the image hosts are slow. Point the catalog's image links at
+ * http://localhost:<port>/<file name> to use it
+ *
+ * Usage: LocalImageServer <directory> [port] [delayMs]
+ *
+ * @author Brian Dong
+ *
+ */
+public class LocalImageServer {
+
+	// Default port
+	public static final int DEFAULT_PORT = 8081;
+
+	private final HttpServer server;
+	private final File root;
+	private final long delay;
+
+	/**
+	 * Creates a server bound to localhost, start must be called to begin serving
+	 *
+	 * @param directory: directory holding the images
+	 * @param port: port to listen on
+	 * @param delay: milliseconds each response is held back by
+	 * @throws IOException
+	 */
+	public LocalImageServer(String directory, int port, long delay) throws IOException {
+		this.root = new File(directory).getCanonicalFile();
+		this.delay = delay;
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", new ImageHandler());
+		server.setExecutor(Executors.newCachedThreadPool());
+	}
+
+	/**
+	 * Starts serving images
+	 */
+	public void start() {
+		server.start();
+		System.out.println("Serving images from '" + root + "' on " + server.getAddress());
+	}
+
+	/**
+	 * Stops serving images
+	 */
+	public void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * Handles GET /<file name>
+	 */
+	private class ImageHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (delay > 0)
+					Thread.sleep(delay);
+
+				// Only serves files inside the root directory
+				File file = new File(root, exchange.getRequestURI().getPath()).getCanonicalFile();
+				if (!file.isFile() || !file.getPath().startsWith(root.getPath() + File.separator)) {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+
+				String type = Files.probeContentType(file.toPath());
+				exchange.getResponseHeaders().set("Content-Type", type == null ? "application/octet-stream" : type);
+				exchange.sendResponseHeaders(200, file.length());
+				OutputStream out = exchange.getResponseBody();
+				try {
+					Files.copy(file.toPath(), out);
+				} finally {
+					out.close();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Starts serving a directory of images
+	 *
+	 * @param args: directory, then optionally port and delay in milliseconds
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: LocalImageServer <directory> [port] [delayMs]");
+			return;
+		}
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		long delay = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		new LocalImageServer(args[0], port, delay).start();
+	}
+}
@@ -0,0 +1,153 @@
+package CS4960;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A column of strings packed end to end as UTF-8 in a single buffer
+ *
+ * String i is stored in bytes offsets[i] up to offsets[i + 1] of the data buffer, so a
+ * column of n strings costs n + 1 ints plus the encoded bytes, instead of a String
+ * object and char array per entry. The buffers may live on the heap, off-heap, or in a
+ * memory-mapped file; a column is never modified once built, and only absolute reads
+ * are used on it, so it may be shared between threads
+ *
+ * @author Brian Dong
+ *
+ */
+public class PackedStrings {
+
+	private final IntBuffer offsets;
+	private final ByteBuffer data;
+
+	/**
+	 * @param offsets: n + 1 offsets into data
+	 * @param data: the packed UTF-8 bytes
+	 */
+	PackedStrings(IntBuffer offsets, ByteBuffer data) {
+		this.offsets = offsets;
+		this.data = data;
+	}
+
+	/**
+	 * @return int: number of strings in the column
+	 */
+	public int size() {
+		return offsets.limit() - 1;
+	}
+
+	/**
+	 * @param i: the entry to decode
+	 * @return String: the i'th string
+	 */
+	public String get(int i) {
+		int start = offsets.get(i);
+		byte[] bytes = new byte[offsets.get(i + 1) - start];
+		// Reads through a duplicate so concurrent lookups never share a position
+		ByteBuffer view = data.duplicate();
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param i: the entry to check
+	 * @return boolean: whether the i'th string is empty
+	 */
+	public boolean isEmpty(int i) {
+		return offsets.get(i) == offsets.get(i + 1);
+	}
+
+	/**
+	 * Writes the column as its entry count, offsets and data
+	 *
+	 * @param out: stream to write to
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(size());
+		for (int i = 0; i <= size(); i++)
+			out.writeInt(offsets.get(i));
+		int length = offsets.get(size());
+		out.writeInt(length);
+		ByteBuffer view = data.duplicate();
+		view.position(0);
+		byte[] chunk = new byte[8192];
+		while (length > 0) {
+			int n = Math.min(length, chunk.length);
+			view.get(chunk, 0, n);
+			out.write(chunk, 0, n);
+			length -= n;
+		}
+	}
+
+	/**
+	 * Reads a column written by writeTo, without copying it out of buffer
+	 *
+	 * @param buffer: buffer positioned at the start of the column, left positioned just past it
+	 * @return PackedStrings: a column backed by buffer
+	 */
+	static PackedStrings read(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		IntBuffer offsets = slice(buffer, (size + 1) * 4).asIntBuffer();
+		int length = buffer.getInt();
+		return new PackedStrings(offsets, slice(buffer, length));
+	}
+
+	/**
+	 * Takes the next length bytes of a buffer as their own buffer
+	 */
+	static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	/**
+	 * Accumulates strings for a new column
+	 */
+	public static class Builder {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int[] offsets = new int[1024];
+		private int size;
+
+		/**
+		 * Adds a string to the end of the column, null is stored as empty
+		 *
+		 * @param s: the string to add
+		 * @return int: the new string's entry number
+		 */
+		public int add(String s) {
+			if (s != null) {
+				byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+				bytes.write(encoded, 0, encoded.length);
+			}
+			if (size + 2 > offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			offsets[++size] = bytes.size();
+			return size - 1;
+		}
+
+		/**
+		 * @param offHeap: whether to place the column outside the java heap
+		 * @return PackedStrings: the built column
+		 */
+		public PackedStrings build(boolean offHeap) {
+			byte[] data = bytes.toByteArray();
+			ByteBuffer dataBuffer = offHeap ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+			dataBuffer.put(data).clear();
+
+			ByteBuffer offsetBuffer = offHeap ? ByteBuffer.allocateDirect((size + 1) * 4)
+					: ByteBuffer.allocate((size + 1) * 4);
+			IntBuffer offsetView = offsetBuffer.asIntBuffer();
+			offsetView.put(offsets, 0, size + 1).clear();
+			return new PackedStrings(offsetView, dataBuffer);
+		}
+	}
+}
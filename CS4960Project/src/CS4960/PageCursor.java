@@ -0,0 +1,69 @@
+package CS4960;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque token marking where the next page of a search's results starts
+ *
+ * A cursor carries everything needed to carry on with the search: the normalized
+ * query, the sort mode and the offset of the next result. It holds no reference to
+ * server state, so a cursor still works after the search's candidates have been
+ * dropped from memory, they are just retrieved again
+ *
+ * @author Brian Dong
+ *
+ */
+public class PageCursor {
+
+	private final String query;
+	private final SortMode sort;
+	private final int offset;
+
+	/**
+	 * @param query: the normalized query
+	 * @param sort: how the results are ordered
+	 * @param offset: rank of the first result on the page, counting from 0
+	 */
+	public PageCursor(String query, SortMode sort, int offset) {
+		this.query = query;
+		this.sort = sort;
+		this.offset = offset;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public SortMode getSort() {
+		return sort;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return String: the cursor as URL safe text
+	 */
+	public String encode() {
+		String text = sort.name() + '\t' + offset + '\t' + query;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param token: text from encode
+	 * @return PageCursor: the cursor
+	 * @throws IllegalArgumentException if token is not a cursor
+	 */
+	public static PageCursor decode(String token) {
+		String text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+		String[] parts = text.split("\t", 3);
+		if (parts.length != 3)
+			throw new IllegalArgumentException("Invalid cursor '" + token + "'");
+		int offset = Integer.parseInt(parts[1]);
+		if (offset < 0)
+			throw new IllegalArgumentException("Invalid cursor '" + token + "'");
+		return new PageCursor(parts[2], SortMode.valueOf(parts[0]), offset);
+	}
+}
@@ -0,0 +1,292 @@
+package CS4960;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * In-memory store of the Amazon product data used to enrich search results
+ *
+ * Holds every product's metadata in a columnar ProductStore, its ratings and review
+ * keywords in a KeywordIndex and its brand, price and categories in a FacetIndex, and
+ * exposes only the handful of fields the
+ * search results need. Once loaded the catalog may be shared between threads, and
+ * new reviews may be added to it while it is being searched
+ *
+ * Some Notes: If a snapshot file is given, a catalog whose snapshot is up to date is
+ *             served straight from the memory-mapped snapshot instead of parsing the
+ *             JSON files, and a fresh snapshot is written whenever they are parsed
+ *
+ * @author Brian Dong
+ *
+ */
+public class ProductCatalog {
+
+	// Default locations of the review and metadata files
+	public static final String DEFAULT_REVIEW_FILE = "Data/Musical_Instruments_5.json";
+	public static final String DEFAULT_META_FILE = "Data/meta_Musical_Instruments.json";
+
+	// Loaded product data, either built from the JSON files or mapped from a snapshot
+	private ProductStore store;
+
+	// Ratings and keywords of each product, by the same ids as the store
+	private KeywordIndex keywords;
+
+	// Brands, prices and categories of each product, by the same ids as the store
+	private FacetIndex facets;
+
+	// Whether a store built from the JSON files is placed outside the java heap
+	private boolean offHeap;
+
+	// Files the catalog is read from
+	private final String reviewFile;
+	private final String metaFile;
+	private final String snapshotFile;
+
+	// Number of bytes of the review file loaded, new reviews are read from there on
+	private long loadedReviewLength;
+
+	/**
+	 * Creates a catalog over the default data files and snapshot
+	 */
+	public ProductCatalog() {
+		this(DEFAULT_REVIEW_FILE, DEFAULT_META_FILE, CatalogSnapshot.DEFAULT_FILE);
+	}
+
+	/**
+	 * Creates a catalog over the given data files without a snapshot, loadData must be
+	 * called before use
+	 *
+	 * @param reviewFile: line delimited JSON file of product reviews
+	 * @param metaFile: line delimited JSON file of product metadata
+	 */
+	public ProductCatalog(String reviewFile, String metaFile) {
+		this(reviewFile, metaFile, null);
+	}
+
+	/**
+	 * Creates a catalog over the given data files, loadData must be called before use
+	 *
+	 * @param reviewFile: line delimited JSON file of product reviews
+	 * @param metaFile: line delimited JSON file of product metadata
+	 * @param snapshotFile: binary snapshot to load from and save to, or null for none
+	 */
+	public ProductCatalog(String reviewFile, String metaFile, String snapshotFile) {
+		this.reviewFile = reviewFile;
+		this.metaFile = metaFile;
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Places the store built by the next loadData outside the java heap, keeping it
+	 * away from the garbage collector
+	 *
+	 * @param offHeap: whether to store product data off-heap
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @return ProductStore: the loaded product data
+	 */
+	public ProductStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @param asin: the product to look up
+	 * @return boolean: whether the catalog has reviews and metadata for the product
+	 */
+	public boolean contains(String asin) {
+		return store.find(asin) >= 0;
+	}
+
+	/**
+	 * @param asin: the product to look up
+	 * @return String: the product's name
+	 */
+	public String getTitle(String asin) {
+		return store.getTitle(store.find(asin));
+	}
+
+	/**
+	 * @param asin: the product to look up
+	 * @return String: link to the product's first image, or null if it has none
+	 */
+	public String getImage(String asin) {
+		return store.getImage(store.find(asin));
+	}
+
+	/**
+	 * @param asin: the product to look up
+	 * @return double: the product's average star rating
+	 */
+	public double getAverage(String asin) {
+		return keywords.getAverage(store.find(asin));
+	}
+
+	/**
+	 * Reads a product's full metadata back from the metadata file, including the fields
+	 * dropped at load
+	 *
+	 * @param asin: the product to look up
+	 * @return JSONObject: every field of the product's metadata, or null if it is not known
+	 * @throws IOException
+	 * @throws ParseException if the metadata file has changed since it was loaded
+	 */
+	public JSONObject getMetadata(String asin) throws IOException, ParseException {
+		int id = store.find(asin);
+		long offset = id < 0 ? -1 : store.getMetaOffset(id);
+		if (offset < 0)
+			return null;
+		JSONObject meta = CatalogLoader.readRecord(metaFile, offset);
+		if (!asin.equals(meta.get("asin")))
+			throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, meta.get("asin"));
+		return meta;
+	}
+
+	/**
+	 * @return KeywordIndex: ratings and keywords of every product
+	 */
+	public KeywordIndex getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * @return FacetIndex: brands, prices and categories of every product
+	 */
+	public FacetIndex getFacets() {
+		return facets;
+	}
+
+	/**
+	 * @return String: the review file the catalog was loaded from
+	 */
+	public String getReviewFile() {
+		return reviewFile;
+	}
+
+	/**
+	 * @return long: number of bytes of the review file loadData read, see ReviewTailer
+	 */
+	public long getLoadedReviewLength() {
+		return loadedReviewLength;
+	}
+
+	/**
+	 * Adds a new review to a product, updating its rating and keywords
+	 *
+	 * @param asin: the reviewed product
+	 * @param overall: the review's star rating
+	 * @param summary: the review's summary
+	 * @return boolean: whether the product is in the catalog, the review is dropped if not
+	 */
+	public boolean addReview(String asin, int overall, String summary) {
+		int id = store.find(asin);
+		if (id < 0)
+			return false;
+		keywords.addReview(id, overall, summary);
+		return true;
+	}
+
+	/**
+	 * Retrieves positive and negative keywords for a given product's asin
+	 * if possible
+	 *
+	 * Note: keywords are derived from a the user provided summaries of their reviews
+	 * Positive keywords are derived from 4-5 star reviews, negative from 1-2 star reviews
+	 * Returned string may be empty, or return only positive or negative reviews, this is
+	 * expected behavior if there are not enough reviews to draw from
+	 *
+	 * Keywords are picked as reviews are loaded, see KeywordIndex, so this is only a lookup
+	 *
+	 * @param String asin: the product to extract keywords for
+	 * @return String keywords: extracted keywords
+	 */
+	public String extractKeywords(String asin) {
+		return keywords.getKeywords(store.find(asin));
+	}
+
+	/**
+	 * Reads in Amazon product data from files and stores them in
+	 * a number of data structures used for retrieval
+	 *
+	 * Note: both files are parsed in parallel chunks, see CatalogLoader, unless an up
+	 * to date snapshot exists, in which case it is mapped instead
+	 * @throws IOException
+	 */
+	public void loadData() throws IOException {
+		// Skips parsing if the snapshot was built from the current files
+		if (snapshotFile != null) {
+			long start = System.nanoTime();
+			CatalogSnapshot snapshot = CatalogSnapshot.open(snapshotFile, reviewFile, metaFile);
+			if (snapshot != null) {
+				store = snapshot.getStore();
+				keywords = snapshot.getKeywords();
+				facets = snapshot.getFacets();
+				loadedReviewLength = snapshot.getReviewLength();
+				System.out.println("Loaded " + store.size() + " products from snapshot '" + snapshotFile + "' in "
+						+ (System.nanoTime() - start) / 1000000 + "ms");
+				return;
+			}
+		}
+
+		CatalogLoader loader = new CatalogLoader();
+		HashMap<String, CatalogLoader.ProductReviews> products;
+		HashMap<String, JsonRecord> metaMap;
+		try {
+			// Reads in product reviews
+			try {
+				products = loader.loadReviews(reviewFile);
+				loadedReviewLength = loader.getLoadedReviewLength();
+			} catch (FileNotFoundException ex) {
+				System.out.println("Unable to open file '" + reviewFile + "'");
+				products = new HashMap<String, CatalogLoader.ProductReviews>();
+			}
+
+			// Reads in product metadata
+			metaMap = loader.loadMeta(metaFile, products.keySet());
+		} finally {
+			loader.shutdown();
+		}
+
+		// Keeps only the fields the search needs, for products with both reviews and metadata
+		List<String> asins = new ArrayList<String>(metaMap.keySet());
+		Collections.sort(asins);
+		ProductStore.Builder builder = new ProductStore.Builder();
+		KeywordIndex index = new KeywordIndex(asins.size());
+		FacetIndex.Builder facetBuilder = new FacetIndex.Builder(asins.size());
+		for (String asin : asins) {
+			JsonRecord meta = metaMap.get(asin);
+			JSONArray images = (JSONArray) meta.get("image");
+			int id = builder.addProduct(asin, (String) meta.get("title"),
+					images != null && images.size() > 0 ? (String) images.get(0) : null, meta.getOffset());
+			facetBuilder.addProduct(meta);
+
+			// Picks keywords and counts ratings once, in file order
+			for (JsonRecord review : products.get(asin).reviews)
+				index.addReview(id, KeywordIndex.stars(((Number) review.get("overall")).doubleValue()),
+						(String) review.get("summary"));
+		}
+		store = builder.build(offHeap);
+		keywords = index;
+		facets = facetBuilder.build();
+
+		// Saves a snapshot for the next start
+		if (snapshotFile != null) {
+			try {
+				CatalogSnapshot.write(snapshotFile, store, keywords, facets, reviewFile, loadedReviewLength, metaFile);
+			} catch (IOException ex) {
+				System.out.println("Unable to write snapshot '" + snapshotFile + "'");
+			}
+		}
+	}
+}
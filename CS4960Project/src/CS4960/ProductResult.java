@@ -0,0 +1,83 @@
+package CS4960;
+
+import org.json.simple.JSONObject;
+
+/**
+ * A single product returned by a search, along with the information about it
+ * that is shown to the user
+ *
+ * @author Brian Dong
+ *
+ */
+public class ProductResult {
+
+	private final String asin;
+	private final double score;
+	private final double rating;
+	private final String title;
+	private final String image;
+	private final String keywords;
+
+	/**
+	 * @param asin: the product's asin
+	 * @param score: the product's galago relevance score for the query
+	 * @param rating: the product's average star rating
+	 * @param title: the product's name
+	 * @param image: link to the product's image, or null if it has none
+	 * @param keywords: positive and negative keywords drawn from the product's reviews
+	 */
+	public ProductResult(String asin, double score, double rating, String title, String image, String keywords) {
+		this.asin = asin;
+		this.score = score;
+		this.rating = rating;
+		this.title = title;
+		this.image = image;
+		this.keywords = keywords;
+	}
+
+	public String getAsin() {
+		return asin;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public double getRating() {
+		return rating;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * @return String: link to the product's image, or null if it has none
+	 */
+	public String getImage() {
+		return image;
+	}
+
+	public boolean hasImage() {
+		return image != null;
+	}
+
+	public String getKeywords() {
+		return keywords;
+	}
+
+	/**
+	 * @return JSONObject: this result as a JSON object, used by the search server
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJSON() {
+		JSONObject obj = new JSONObject();
+		obj.put("asin", asin);
+		obj.put("score", score);
+		obj.put("rating", rating);
+		obj.put("title", title);
+		obj.put("image", image);
+		obj.put("keywords", keywords);
+		return obj;
+	}
+}
@@ -0,0 +1,172 @@
+package CS4960;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Columnar store of the product fields used by the search path
+ *
+ * Every product's asin is interned to a dense int id, and each field is kept as its
+ * own column indexed by that id, with title and first image as packed strings. Ratings
+ * and keywords drawn from reviews live in the KeywordIndex under the same ids, and
+ * everything else in the JSON files (review text, descriptions, also-bought lists...)
+ * is dropped at load; only the offset of each product's metadata line is kept, so its
+ * full metadata can be read back from the file if it is ever needed
+ *
+ * Some Notes: Columns are buffers rather than arrays so the same store can be kept on
+ *             the heap, allocated off-heap to keep it away from the garbage collector,
+ *             or read straight out of a memory-mapped snapshot
+ *
+ *             A store is never modified once built and may be shared between threads
+ *
+ * @author Brian Dong
+ *
+ */
+public class ProductStore {
+
+	// Asin dictionary, asins mapped to their dense ids
+	private final HashMap<String, Integer> ids;
+
+	// Product columns, indexed by id
+	private final PackedStrings asins;
+	private final PackedStrings title;
+	private final PackedStrings image;
+	private final LongBuffer metaOffset;
+
+	private ProductStore(PackedStrings asins, PackedStrings title, PackedStrings image, LongBuffer metaOffset) {
+		this.asins = asins;
+		this.title = title;
+		this.image = image;
+		this.metaOffset = metaOffset;
+
+		// Interns the asins
+		ids = new HashMap<String, Integer>(asins.size() * 2);
+		for (int i = 0; i < asins.size(); i++)
+			ids.put(asins.get(i), i);
+	}
+
+	/**
+	 * @param asin: the product to look up
+	 * @return int: the product's id, or -1 if it is not in the store
+	 */
+	public int find(String asin) {
+		Integer id = ids.get(asin);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return int: number of products in the store
+	 */
+	public int size() {
+		return asins.size();
+	}
+
+	public String getAsin(int id) {
+		return asins.get(id);
+	}
+
+	public String getTitle(int id) {
+		return title.get(id);
+	}
+
+	/**
+	 * @return String: link to the product's first image, or null if it has none
+	 */
+	public String getImage(int id) {
+		return image.isEmpty(id) ? null : image.get(id);
+	}
+
+	/**
+	 * @return long: offset of the product's line in the metadata file, or -1 if unknown
+	 */
+	public long getMetaOffset(int id) {
+		return metaOffset.get(id);
+	}
+
+	/**
+	 * Writes the store's columns, read back by read
+	 *
+	 * @param out: stream to write to
+	 * @throws IOException
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		asins.writeTo(out);
+		title.writeTo(out);
+		image.writeTo(out);
+		out.writeInt(metaOffset.limit());
+		for (int i = 0; i < metaOffset.limit(); i++)
+			out.writeLong(metaOffset.get(i));
+	}
+
+	/**
+	 * Reads a store written by writeTo, backed directly by buffer rather than copied
+	 *
+	 * @param buffer: buffer positioned at the start of the store, left positioned just past it
+	 * @return ProductStore: the store
+	 */
+	static ProductStore read(ByteBuffer buffer) {
+		PackedStrings asins = PackedStrings.read(buffer);
+		PackedStrings title = PackedStrings.read(buffer);
+		PackedStrings image = PackedStrings.read(buffer);
+		int size = buffer.getInt();
+		LongBuffer metaOffset = PackedStrings.slice(buffer, size * 8).asLongBuffer();
+		return new ProductStore(asins, title, image, metaOffset);
+	}
+
+	/**
+	 * Accumulates products for a new store
+	 */
+	public static class Builder {
+		private final PackedStrings.Builder asins = new PackedStrings.Builder();
+		private final PackedStrings.Builder title = new PackedStrings.Builder();
+		private final PackedStrings.Builder image = new PackedStrings.Builder();
+		private long[] metaOffset = new long[1024];
+		private int size;
+
+		/**
+		 * Adds a product
+		 *
+		 * @param asin: the product's asin
+		 * @param productTitle: the product's name
+		 * @param productImage: link to the product's first image, or null if it has none
+		 * @return int: the product's id
+		 */
+		public int addProduct(String asin, String productTitle, String productImage) {
+			return addProduct(asin, productTitle, productImage, -1);
+		}
+
+		/**
+		 * Adds a product along with where its metadata was read from
+		 *
+		 * @param asin: the product's asin
+		 * @param productTitle: the product's name
+		 * @param productImage: link to the product's first image, or null if it has none
+		 * @param productMetaOffset: offset of the product's line in the metadata file, or -1
+		 * @return int: the product's id
+		 */
+		public int addProduct(String asin, String productTitle, String productImage, long productMetaOffset) {
+			asins.add(asin);
+			title.add(productTitle);
+			image.add(productImage);
+			if (size == metaOffset.length)
+				metaOffset = Arrays.copyOf(metaOffset, size * 2);
+			metaOffset[size] = productMetaOffset;
+			return size++;
+		}
+
+		/**
+		 * @param offHeap: whether to place the store's columns outside the java heap
+		 * @return ProductStore: the built store
+		 */
+		public ProductStore build(boolean offHeap) {
+			ByteBuffer offsetBuffer = offHeap ? ByteBuffer.allocateDirect(size * 8) : ByteBuffer.allocate(size * 8);
+			LongBuffer offsetView = offsetBuffer.asLongBuffer();
+			offsetView.put(metaOffset, 0, size).clear();
+			return new ProductStore(asins.build(offHeap), title.build(offHeap), image.build(offHeap), offsetView);
+		}
+	}
+}
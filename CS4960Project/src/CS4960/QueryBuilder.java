@@ -0,0 +1,119 @@
+package CS4960;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.core.retrieval.query.NodeParameters;
+
+/**
+ * Builds galago query trees directly, instead of writing a query string only for
+ * galago to parse it straight back into a tree
+ *
+ * The trees built here are the same ones galago parses the equivalent strings into,
+ * for example combine(["red", "guitar"], "postings.krovetz") is the tree for
+ * #combine(#extents:part=postings.krovetz:red() #extents:part=postings.krovetz:guitar())
+ *
+ * @author Brian Dong
+ *
+ */
+public class QueryBuilder {
+
+	private QueryBuilder() {
+	}
+
+	/**
+	 * Splits a query into its terms, lower cased with empty terms dropped
+	 *
+	 * @param query: the search query provided by the user
+	 * @return List<String>: the query's terms, in order
+	 */
+	public static List<String> terms(String query) {
+		List<String> terms = new ArrayList<String>();
+		for (String t : query.trim().toLowerCase().split("\\s+")) {
+			if (t.length() > 0)
+				terms.add(t);
+		}
+		return terms;
+	}
+
+	/**
+	 * @param term: a single query term
+	 * @param part: index part the term is looked up in
+	 * @return Node: #extents:part=<part>:<term>()
+	 */
+	public static Node extents(String term, String part) {
+		NodeParameters np = new NodeParameters();
+		np.set("part", part);
+		np.set("default", term);
+		return new Node("extents", np);
+	}
+
+	/**
+	 * Applies the retrieval model to the query terms
+	 *
+	 * @param terms: the query's terms
+	 * @param part: index part the terms are looked up in
+	 * @return Node: #combine over the #extents of every term
+	 */
+	public static Node combine(List<String> terms, String part) {
+		List<Node> children = new ArrayList<Node>(terms.size());
+		for (String t : terms)
+			children.add(extents(t, part));
+		return new Node("combine", children);
+	}
+
+	/**
+	 * Expands a relevance tree with weighted terms, such as a relevance model's
+	 *
+	 * @param original: the original relevance tree, see combine
+	 * @param expansion: expansion terms mapped to their weights
+	 * @param part: index part the terms are looked up in
+	 * @param originalWeight: weight of the original tree, the expansion gets the rest
+	 * @return Node: #combine:0=<w>:1=<1-w>(original #combine:0=<p1>:1=<p2>...(#extents...)),
+	 * 				 or just original if there are no expansion terms
+	 */
+	public static Node expand(Node original, Map<String, Double> expansion, String part, double originalWeight) {
+		if (expansion.isEmpty())
+			return original;
+
+		NodeParameters termWeights = new NodeParameters();
+		List<Node> terms = new ArrayList<Node>(expansion.size());
+		for (Map.Entry<String, Double> e : expansion.entrySet()) {
+			termWeights.set(Integer.toString(terms.size()), e.getValue());
+			terms.add(extents(e.getKey(), part));
+		}
+
+		NodeParameters weights = new NodeParameters();
+		weights.set("0", originalWeight);
+		weights.set("1", 1 - originalWeight);
+
+		List<Node> children = new ArrayList<Node>(2);
+		children.add(original);
+		children.add(new Node("combine", termWeights, terms));
+		return new Node("combine", weights, children);
+	}
+
+	/**
+	 * Weighs a relevance tree against a product prior
+	 *
+	 * @param relevance: the relevance tree, see combine
+	 * @param priorPart: index part holding the prior
+	 * @param priorWeight: weight of the prior, relevance gets the rest
+	 * @return Node: #combine:0=<1-w>:1=<w>(relevance #prior:part=<priorPart>())
+	 */
+	public static Node weighPrior(Node relevance, String priorPart, double priorWeight) {
+		NodeParameters prior = new NodeParameters();
+		prior.set("part", priorPart);
+
+		NodeParameters weights = new NodeParameters();
+		weights.set("0", 1 - priorWeight);
+		weights.set("1", priorWeight);
+
+		List<Node> children = new ArrayList<Node>(2);
+		children.add(relevance);
+		children.add(new Node("prior", prior));
+		return new Node("combine", weights, children);
+	}
+}
@@ -0,0 +1,111 @@
+package CS4960;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lemurproject.galago.core.retrieval.query.Node;
+
+/**
+ * Bounded cache of transformed galago query trees, keyed by the kind of query, the
+ * retrieval parameters it depends on and its normalized terms
+ *
+ * Transforming a query runs every one of galago's traversals over it, looking up
+ * collection statistics for each term along the way, which is a noticeable part of
+ * the time taken by the short, often repeated queries the search engine sees. Entries
+ * are evicted least recently used first once the cache holds maxEntries plans
+ *
+ * Some Notes: The cache keeps its own copy of every plan, and hands out copies, since
+ *             galago is free to modify a tree while executing it. It must be invalidated
+ *             whenever the index changes, since plans carry the index's statistics
+ *
+ * @author Brian Dong
+ *
+ */
+public class QueryPlanCache {
+
+	// Default number of cached plans
+	public static final int DEFAULT_ENTRIES = 4096;
+
+	private final LinkedHashMap<String, Node> plans;
+
+	// Counts of lookups that were and were not served from the cache
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxEntries: number of plans kept before the least recently used is evicted
+	 */
+	public QueryPlanCache(final int maxEntries) {
+		plans = new LinkedHashMap<String, Node>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Node> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param kind: the kind of query along with every parameter its plan depends on
+	 * @param terms: the query's normalized terms, see QueryBuilder.terms
+	 * @return String: the cache key for a plan
+	 */
+	public static String key(String kind, List<String> terms) {
+		StringBuilder key = new StringBuilder(kind);
+		for (String t : terms)
+			key.append('\u0000').append(t);
+		return key.toString();
+	}
+
+	/**
+	 * @param key: the plan's cache key
+	 * @return Node: a copy of the cached plan, or null if there is none
+	 */
+	public Node get(String key) {
+		Node plan;
+		synchronized (this) {
+			plan = plans.get(key);
+		}
+		if (plan == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return plan.clone();
+	}
+
+	/**
+	 * Caches a transformed plan
+	 *
+	 * @param key: the plan's cache key
+	 * @param plan: the transformed plan
+	 */
+	public void put(String key, Node plan) {
+		Node copy = plan.clone();
+		synchronized (this) {
+			plans.put(key, copy);
+		}
+	}
+
+	/**
+	 * Empties the cache, called whenever the index changes
+	 */
+	public synchronized void invalidate() {
+		plans.clear();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return plans.size();
+	}
+}
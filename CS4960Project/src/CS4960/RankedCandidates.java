@@ -0,0 +1,103 @@
+package CS4960;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The deep candidate list of a search, retrieved once and then paged through
+ *
+ * When the retrieval order is the final order, a page is just a slice of it. When
+ * the candidates are re-ranked, pages are ranked as they are asked for: each page is
+ * the re-ranker's choice from the next window of unshown candidates, in relevance
+ * order, so deeper pages cost nothing until they are wanted
+ *
+ * The first page is the one the search already showed, retrieved and ranked from
+ * fewer candidates, and later pages carry on from the candidates it did not show, so
+ * no product is repeated or skipped between the first page and the second
+ *
+ * @author Brian Dong
+ *
+ */
+public class RankedCandidates {
+
+	// Candidates not ranked yet, in retrieval order
+	private final List<Candidate> remaining;
+
+	// Candidates ranked so far, in display order
+	private final List<Candidate> ranked = new ArrayList<Candidate>();
+
+	// Orders each window of candidates, null if retrieval order is final
+	private final ReRanker reRanker;
+	private final int window;
+
+	/**
+	 * @param shown: the products already shown on the first page, in display order
+	 * @param candidates: retrieved products, in retrieval order
+	 * @param reRanker: re-ranker choosing each page, or null to keep retrieval order
+	 * @param window: number of candidates the re-ranker chooses each page from
+	 */
+	public RankedCandidates(List<Candidate> shown, List<Candidate> candidates, ReRanker reRanker, int window) {
+		this.reRanker = reRanker;
+		this.window = window;
+		ranked.addAll(shown);
+
+		// Drops the products already shown from the candidates still to rank
+		Set<String> asins = new HashSet<String>();
+		for (Candidate c : shown)
+			asins.add(c.getAsin());
+		List<Candidate> unshown = new ArrayList<Candidate>(candidates.size());
+		for (Candidate c : candidates) {
+			if (!asins.contains(c.getAsin()))
+				unshown.add(c);
+		}
+		if (reRanker == null) {
+			ranked.addAll(unshown);
+			this.remaining = Collections.emptyList();
+		} else
+			this.remaining = unshown;
+	}
+
+	/**
+	 * @param offset: rank of the first candidate, counting from 0
+	 * @param count: most candidates to return
+	 * @return List<Candidate>: the candidates ranked offset onwards, in display order
+	 */
+	public synchronized List<Candidate> page(int offset, int count) {
+		while (ranked.size() < offset + count && !remaining.isEmpty()) {
+			Cancellation.check();
+			List<Candidate> chosen = reRanker
+					.rerank(new ArrayList<Candidate>(remaining.subList(0, Math.min(window, remaining.size()))));
+			if (chosen.isEmpty())
+				break;
+
+			// Drops the chosen candidates from those still to rank
+			Map<Candidate, Boolean> taken = new IdentityHashMap<Candidate, Boolean>();
+			for (Candidate c : chosen)
+				taken.put(c, Boolean.TRUE);
+			List<Candidate> left = new ArrayList<Candidate>(remaining.size() - chosen.size());
+			for (Candidate c : remaining) {
+				if (!taken.containsKey(c))
+					left.add(c);
+			}
+			remaining.clear();
+			remaining.addAll(left);
+			ranked.addAll(chosen);
+		}
+		if (offset >= ranked.size())
+			return Collections.emptyList();
+		return new ArrayList<Candidate>(ranked.subList(offset, Math.min(ranked.size(), offset + count)));
+	}
+
+	/**
+	 * @param offset: a rank, counting from 0
+	 * @return boolean: whether there is a candidate at or after offset
+	 */
+	public synchronized boolean hasMore(int offset) {
+		return offset < ranked.size() + remaining.size();
+	}
+}
@@ -0,0 +1,106 @@
+package CS4960;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.lemurproject.galago.core.tools.App;
+
+/**
+ * Builds a per-product rating prior into the galago index, so that sorting by rating
+ * can be scored inside galago in a single pass instead of re-ranking an over-fetched
+ * list of products
+ *
+ * Each product's prior is the log of its smoothed average rating out of five, where
+ * the average is pulled towards the catalog's overall average by SMOOTHING reviews, so
+ * a single five star review does not outrank hundreds of four and a half star ones.
+ * The priors are written as a tab separated file of asin and value, and then built
+ * into a special index part with galago's build-special tool
+ *
+ * Usage: RatingPrior [indexPath] [partName]
+ *
+ * @author Brian Dong
+ *
+ */
+public class RatingPrior {
+
+	// Default name of the index part holding the priors
+	public static final String DEFAULT_PART = "rating";
+
+	// Number of reviews' worth of weight given to the catalog's overall average
+	private static final double SMOOTHING = 5.0;
+
+	// File the priors are written to before being built into the index
+	private static final String PRIOR_FILE = "Data/rating_prior.tsv";
+
+	private RatingPrior() {
+	}
+
+	/**
+	 * Writes every product's prior to a tab separated file
+	 *
+	 * @param catalog: the loaded catalog
+	 * @param fileName: file to write
+	 * @throws IOException
+	 */
+	public static void writePriors(ProductCatalog catalog, String fileName) throws IOException {
+		ProductStore store = catalog.getStore();
+		KeywordIndex ratings = catalog.getKeywords();
+
+		// Finds the catalog's overall average rating
+		double total = 0;
+		long count = 0;
+		for (int id = 0; id < store.size(); id++) {
+			total += ratings.getAverage(id) * ratings.getReviewCount(id);
+			count += ratings.getReviewCount(id);
+		}
+		double overall = count == 0 ? 0 : total / count;
+
+		BufferedWriter out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+		try {
+			for (int id = 0; id < store.size(); id++) {
+				int reviews = ratings.getReviewCount(id);
+				double smoothed = (ratings.getAverage(id) * reviews + overall * SMOOTHING) / (reviews + SMOOTHING);
+				out.write(store.getAsin(id));
+				out.write('\t');
+				out.write(Double.toString(Math.log(smoothed / KeywordIndex.STARS)));
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Builds the priors in fileName into a special part of the index
+	 *
+	 * @param indexPath: the galago index
+	 * @param fileName: tab separated priors, see writePriors
+	 * @param partName: name of the part to build
+	 * @throws Exception
+	 */
+	public static void build(String indexPath, String fileName, String partName) throws Exception {
+		App.run(new String[] { "build-special", "--indexPath=" + indexPath, "--inputPath=" + fileName,
+				"--type=prior", "--partName=" + partName });
+	}
+
+	/**
+	 * Builds the rating prior for the default catalog into an index
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String indexPath = args.length > 0 ? args[0] : SearchEngine.DEFAULT_INDEX;
+		String partName = args.length > 1 ? args[1] : DEFAULT_PART;
+
+		ProductCatalog catalog = new ProductCatalog();
+		catalog.loadData();
+		writePriors(catalog, PRIOR_FILE);
+		build(indexPath, PRIOR_FILE, partName);
+		System.out.println("Built rating prior '" + partName + "' into '" + indexPath + "'");
+	}
+}
@@ -0,0 +1,22 @@
+package CS4960;
+
+import java.util.List;
+
+/**
+ * Reorders the products retrieved for a query before they are shown to the user
+ *
+ * Re-rankers only see each product's asin, relevance score and rating; the chosen
+ * products are enriched with titles, images and keywords afterwards, so a re-ranker
+ * never pays for enriching products it does not pick
+ *
+ * @author Brian Dong
+ *
+ */
+public interface ReRanker {
+
+	/**
+	 * @param candidates: retrieved products, in descending relevance order
+	 * @return List<Candidate>: the products to show, in the order to show them
+	 */
+	List<Candidate> rerank(List<Candidate> candidates);
+}
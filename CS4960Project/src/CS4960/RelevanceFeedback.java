@@ -0,0 +1,424 @@
+package CS4960;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import CS4960.SearchMetrics.Counter;
+
+/**
+ * RM3 pseudo relevance feedback, expanding a query with the terms most likely under
+ * a relevance model estimated from its top ranked products
+ *
+ * A query's relevance model is estimated once from its first fbDocs results, each
+ * product's term distribution weighted by its query likelihood, and only the best
+ * fbTerm terms are kept. Models are cached by the query's set of terms, and models
+ * precomputed offline for the most frequent queries are loaded at startup and never
+ * evicted, so expansion costs a second retrieval only the first time a query is seen
+ *
+ * Some Notes: The cost of estimating a model is bounded by fbDocs, both in the depth
+ *             of the feedback retrieval and in the number of documents read from the
+ *             index. Term counts of recently read documents are cached too, since
+ *             popular products are feedback documents for many queries
+ *
+ *             Models carry the index's statistics, so the cache must be invalidated
+ *             whenever the index changes, along with the plan cache
+ *
+ * Usage: RelevanceFeedback <queryFile> <outputFile> [queries] [configFile] [indexPath]
+ *        precomputes the models of the most frequent queries in a query file, see
+ *        BatchRunner.readQueries, for the config file's "feedbackFile"
+ *
+ * @author Brian Dong
+ *
+ */
+public class RelevanceFeedback {
+
+	// Defaults, named as in galago's own RM3 parameters
+	public static final int DEFAULT_FEEDBACK_DOCS = 10;
+	public static final int DEFAULT_FEEDBACK_TERMS = 20;
+	public static final double DEFAULT_ORIGINAL_WEIGHT = 0.5;
+
+	// Default number of cached models and document term counts
+	public static final int DEFAULT_ENTRIES = 4096;
+	public static final int DEFAULT_DOCUMENT_ENTRIES = 10000;
+
+	// Default number of queries precomputed offline
+	private static final int DEFAULT_PRECOMPUTED = 1000;
+
+	// Common words that say nothing about what a product is
+	private static final Set<String> STOPWORDS = new HashSet<String>(Arrays.asList("a", "about", "after", "all",
+			"also", "am", "an", "and", "any", "are", "as", "at", "be", "been", "but", "by", "can", "could", "did", "do",
+			"does", "for", "from", "get", "got", "had", "has", "have", "he", "her", "him", "his", "how", "i", "if", "in",
+			"into", "is", "it", "its", "just", "me", "more", "my", "no", "not", "of", "on", "one", "only", "or", "other",
+			"our", "out", "she", "so", "some", "than", "that", "the", "their", "them", "then", "there", "these", "they",
+			"this", "to", "too", "up", "us", "very", "was", "we", "well", "were", "what", "when", "which", "while", "who",
+			"will", "with", "would", "you", "your"));
+
+	/**
+	 * Reads the terms of a feedback document from the index
+	 */
+	public interface Documents {
+
+		/**
+		 * @param name: the document's name
+		 * @return List<String>: the document's terms, in order, or null if it has none
+		 * @throws IOException
+		 */
+		List<String> terms(String name) throws IOException;
+	}
+
+	private final int feedbackDocs;
+	private final int feedbackTerms;
+	private final double originalWeight;
+
+	// Models of recent queries, keyed by term set, least recently used first
+	private final LinkedHashMap<String, Map<String, Double>> models;
+
+	// Models precomputed offline, never evicted
+	private final HashMap<String, Map<String, Double>> precomputed = new HashMap<String, Map<String, Double>>();
+
+	// Term counts and lengths of recently read feedback documents
+	private final LinkedHashMap<String, DocumentVector> documents;
+
+	/**
+	 * @param feedbackDocs: number of top results a model is estimated from
+	 * @param feedbackTerms: number of terms a query is expanded with
+	 * @param originalWeight: weight of the original query, the expansion terms get the rest
+	 * @param maxEntries: number of models cached
+	 * @param maxDocuments: number of documents whose term counts are cached
+	 */
+	public RelevanceFeedback(int feedbackDocs, int feedbackTerms, double originalWeight, final int maxEntries,
+			final int maxDocuments) {
+		this.feedbackDocs = feedbackDocs;
+		this.feedbackTerms = feedbackTerms;
+		this.originalWeight = originalWeight;
+		models = new LinkedHashMap<String, Map<String, Double>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, Double>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		documents = new LinkedHashMap<String, DocumentVector>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, DocumentVector> eldest) {
+				return size() > maxDocuments;
+			}
+		};
+	}
+
+	/**
+	 * @return int: number of top results a model is estimated from
+	 */
+	public int getFeedbackDocs() {
+		return feedbackDocs;
+	}
+
+	/**
+	 * @return double: weight of the original query against its expansion
+	 */
+	public double getOriginalWeight() {
+		return originalWeight;
+	}
+
+	/**
+	 * @param terms: the query's normalized terms
+	 * @return String: the cache key of a query's model, the same for any order of its terms
+	 */
+	public static String key(List<String> terms) {
+		StringBuilder key = new StringBuilder();
+		for (String t : new TreeSet<String>(terms)) {
+			if (key.length() > 0)
+				key.append(' ');
+			key.append(t);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param terms: the query's normalized terms
+	 * @return Map<String, Double>: the query's cached or precomputed model, or null if it has none
+	 */
+	public Map<String, Double> get(List<String> terms) {
+		String key = key(terms);
+		Map<String, Double> model;
+		synchronized (this) {
+			model = precomputed.get(key);
+			if (model == null)
+				model = models.get(key);
+		}
+		SearchMetrics.global().increment(model != null ? Counter.FEEDBACK_CACHE_HITS : Counter.FEEDBACK_CACHE_MISSES);
+		return model;
+	}
+
+	/**
+	 * Caches a query's model
+	 *
+	 * @param terms: the query's normalized terms
+	 * @param model: the query's model, see estimate
+	 */
+	public synchronized void put(List<String> terms, Map<String, Double> model) {
+		models.put(key(terms), model);
+	}
+
+	/**
+	 * Estimates a query's relevance model from its feedback documents
+	 *
+	 * @param terms: the query's normalized terms, never used as expansion terms
+	 * @param feedback: the query's top results mapped to their scores, best first
+	 * @param docs: reads documents that are not cached
+	 * @return Map<String, Double>: the best feedbackTerms terms mapped to their
+	 * 							   probabilities, which sum to 1, best first
+	 * @throws IOException
+	 */
+	public Map<String, Double> estimate(List<String> terms, LinkedHashMap<String, Double> feedback, Documents docs)
+			throws IOException {
+		if (feedback.isEmpty())
+			return Collections.emptyMap();
+
+		// Scores are log likelihoods, shifted by the best so the weights do not underflow
+		double best = Double.NEGATIVE_INFINITY;
+		for (double score : feedback.values())
+			best = Math.max(best, score);
+
+		HashMap<String, Double> relevance = new HashMap<String, Double>();
+		int used = 0;
+		for (Map.Entry<String, Double> e : feedback.entrySet()) {
+			if (used++ == feedbackDocs)
+				break;
+			Cancellation.check();
+			DocumentVector doc = document(e.getKey(), docs);
+			if (doc == null)
+				continue;
+			double weight = Math.exp(e.getValue() - best) / doc.length;
+			for (Map.Entry<String, Integer> t : doc.counts.entrySet()) {
+				Double sum = relevance.get(t.getKey());
+				relevance.put(t.getKey(), (sum == null ? 0 : sum) + weight * t.getValue());
+			}
+		}
+		for (String t : terms)
+			relevance.remove(t);
+
+		// Keeps the best terms, normalized to a distribution
+		List<Map.Entry<String, Double>> ranked = new ArrayList<Map.Entry<String, Double>>(relevance.entrySet());
+		Collections.sort(ranked, new Comparator<Map.Entry<String, Double>>() {
+			@Override
+			public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+				int byWeight = Double.compare(b.getValue(), a.getValue());
+				return byWeight != 0 ? byWeight : a.getKey().compareTo(b.getKey());
+			}
+		});
+		ranked = ranked.subList(0, Math.min(feedbackTerms, ranked.size()));
+		double total = 0;
+		for (Map.Entry<String, Double> e : ranked)
+			total += e.getValue();
+		LinkedHashMap<String, Double> model = new LinkedHashMap<String, Double>();
+		for (Map.Entry<String, Double> e : ranked)
+			model.put(e.getKey(), e.getValue() / total);
+		return model;
+	}
+
+	/**
+	 * Returns a feedback document's term counts, from the cache if it was read recently
+	 */
+	private DocumentVector document(String name, Documents docs) throws IOException {
+		synchronized (this) {
+			DocumentVector doc = documents.get(name);
+			if (doc != null)
+				return doc;
+		}
+		List<String> terms = docs.terms(name);
+		if (terms == null || terms.isEmpty())
+			return null;
+
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (String t : terms) {
+			if (!expansionTerm(t))
+				continue;
+			Integer count = counts.get(t);
+			counts.put(t, count == null ? 1 : count + 1);
+		}
+		DocumentVector doc = new DocumentVector(counts, terms.size());
+		synchronized (this) {
+			documents.put(name, doc);
+		}
+		return doc;
+	}
+
+	/**
+	 * @param term: a document term
+	 * @return boolean: whether the term may be used to expand a query
+	 */
+	private static boolean expansionTerm(String term) {
+		if (term.length() < 2 || STOPWORDS.contains(term))
+			return false;
+		for (int i = 0; i < term.length(); i++) {
+			if (Character.isLetter(term.charAt(i)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Empties the caches, called whenever the index changes
+	 *
+	 * Note: precomputed models are kept, and must be precomputed again for a new index
+	 */
+	public synchronized void invalidate() {
+		models.clear();
+		documents.clear();
+	}
+
+	public synchronized int size() {
+		return models.size();
+	}
+
+	public synchronized int getPrecomputedCount() {
+		return precomputed.size();
+	}
+
+	/**
+	 * Loads precomputed models written by write
+	 *
+	 * @param fileName: the file of precomputed models
+	 * @throws IOException
+	 */
+	public void load(String fileName) throws IOException {
+		HashMap<String, Map<String, Double>> read = new HashMap<String, Map<String, Double>>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab < 0)
+					continue;
+				LinkedHashMap<String, Double> model = new LinkedHashMap<String, Double>();
+				for (String pair : line.substring(tab + 1).split(" ")) {
+					int colon = pair.lastIndexOf(':');
+					if (colon > 0)
+						model.put(pair.substring(0, colon), Double.parseDouble(pair.substring(colon + 1)));
+				}
+				read.put(line.substring(0, tab), model);
+			}
+		} finally {
+			in.close();
+		}
+		synchronized (this) {
+			precomputed.putAll(read);
+		}
+		System.out.println("Loaded " + read.size() + " precomputed feedback models");
+	}
+
+	/**
+	 * Writes models in the format read by load, one query per line: its key, a tab,
+	 * then space separated term:probability pairs
+	 *
+	 * @param fileName: the file to write
+	 * @param models: query keys, see key, mapped to their models
+	 * @throws IOException
+	 */
+	public static void write(String fileName, Map<String, Map<String, Double>> models) throws IOException {
+		BufferedWriter out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+		try {
+			for (Map.Entry<String, Map<String, Double>> e : models.entrySet()) {
+				out.write(e.getKey());
+				out.write('\t');
+				boolean first = true;
+				for (Map.Entry<String, Double> t : e.getValue().entrySet()) {
+					if (!first)
+						out.write(' ');
+					out.write(t.getKey() + ":" + t.getValue());
+					first = false;
+				}
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Term counts of a single feedback document
+	 */
+	private static class DocumentVector {
+		final Map<String, Integer> counts;
+		// Length of the whole document, including the terms never used for expansion
+		final int length;
+
+		DocumentVector(Map<String, Integer> counts, int length) {
+			this.counts = counts;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Precomputes the models of the most frequent queries in a query file
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: RelevanceFeedback <queryFile> <outputFile> [queries] [configFile] [indexPath]");
+			return;
+		}
+		int top = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PRECOMPUTED;
+		String config = args.length > 3 ? args[3] : SearchEngine.DEFAULT_CONFIG;
+		String index = args.length > 4 ? args[4] : SearchEngine.DEFAULT_INDEX;
+
+		// Counts how often each term set is queried
+		final HashMap<String, Integer> frequency = new HashMap<String, Integer>();
+		HashMap<String, List<String>> termSets = new HashMap<String, List<String>>();
+		for (BatchRunner.Query q : BatchRunner.readQueries(args[0])) {
+			List<String> terms = QueryBuilder.terms(q.text);
+			if (terms.isEmpty())
+				continue;
+			String key = key(terms);
+			Integer count = frequency.get(key);
+			frequency.put(key, count == null ? 1 : count + 1);
+			termSets.put(key, terms);
+		}
+		List<String> keys = new ArrayList<String>(frequency.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				int byCount = frequency.get(b) - frequency.get(a);
+				return byCount != 0 ? byCount : a.compareTo(b);
+			}
+		});
+		keys = keys.subList(0, Math.min(top, keys.size()));
+
+		long start = System.nanoTime();
+		SearchEngine engine = new SearchEngine(config, index);
+		LinkedHashMap<String, Map<String, Double>> models = new LinkedHashMap<String, Map<String, Double>>();
+		try {
+			for (String key : keys)
+				models.put(key, engine.estimateFeedback(termSets.get(key)));
+		} finally {
+			engine.close();
+		}
+		write(args[1], models);
+		System.out.println("Precomputed " + models.size() + " feedback models in "
+				+ (System.nanoTime() - start) / 1000000 + "ms to " + args[1]);
+	}
+}
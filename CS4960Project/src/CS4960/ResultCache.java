@@ -0,0 +1,124 @@
+package CS4960;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of finished search results, keyed by normalized query text, sort mode
+ * and number of results
+ *
+ * Entries are evicted least recently used first once the cache holds maxEntries
+ * results. The cache is emptied whenever the index or product data changes; a search
+ * that started before the cache was emptied is not allowed to put its, now stale,
+ * results back into it
+ *
+ * @author Brian Dong
+ *
+ */
+public class ResultCache {
+
+	// Default number of cached result lists
+	public static final int DEFAULT_ENTRIES = 10000;
+
+	private final LinkedHashMap<String, List<ProductResult>> entries;
+
+	// Counts of lookups that were and were not served from the cache
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	// Bumped every time the cache is emptied
+	private long generation;
+
+	/**
+	 * @param maxEntries: number of result lists kept before the least recently used is evicted
+	 */
+	public ResultCache(final int maxEntries) {
+		entries = new LinkedHashMap<String, List<ProductResult>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<ProductResult>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Normalizes a query so trivially different queries share a cache entry, lower
+	 * casing it and collapsing runs of whitespace
+	 *
+	 * @param query: the query as typed
+	 * @return String: the normalized query
+	 */
+	public static String normalize(String query) {
+		return query.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	/**
+	 * @param query: normalized query
+	 * @param sort: how results are ordered
+	 * @param k: number of results
+	 * @return String: the cache key for a search
+	 */
+	public static String key(String query, SortMode sort, int k) {
+		return sort.name() + '\u0000' + k + '\u0000' + query;
+	}
+
+	/**
+	 * @param key: the search's cache key
+	 * @return List<ProductResult>: the cached results, or null if there are none
+	 */
+	public synchronized List<ProductResult> get(String key) {
+		List<ProductResult> results = entries.get(key);
+		if (results == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return results;
+	}
+
+	/**
+	 * @return long: the current generation, to be passed to put once the search finishes
+	 */
+	public synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * Caches a search's results, unless the cache was emptied since the search started
+	 *
+	 * @param key: the search's cache key
+	 * @param results: the search's results
+	 * @param startedAt: the generation when the search started
+	 * @return List<ProductResult>: the results, as an unmodifiable list
+	 */
+	public synchronized List<ProductResult> put(String key, List<ProductResult> results, long startedAt) {
+		List<ProductResult> frozen = Collections.unmodifiableList(results);
+		if (startedAt == generation)
+			entries.put(key, frozen);
+		return frozen;
+	}
+
+	/**
+	 * Empties the cache, called whenever the index or product data changes
+	 */
+	public synchronized void invalidate() {
+		entries.clear();
+		generation++;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,17 @@
+package CS4960;
+
+/**
+ * Receives the results of a streamed search one at a time, see SearchService.stream
+ *
+ * @author Brian Dong
+ *
+ */
+public interface ResultListener {
+
+	/**
+	 * @param rank: the result's rank, counting from 0
+	 * @param result: the enriched result
+	 * @return boolean: whether to keep streaming
+	 */
+	boolean result(int rank, ProductResult result);
+}
@@ -0,0 +1,42 @@
+package CS4960;
+
+import java.util.List;
+
+/**
+ * One page of a search's results, along with the cursor of the page after it
+ *
+ * @author Brian Dong
+ *
+ */
+public class ResultPage {
+
+	private final List<ProductResult> results;
+	private final int offset;
+	private final String next;
+
+	/**
+	 * @param results: the page's results, in order
+	 * @param offset: rank of the first result, counting from 0
+	 * @param next: cursor of the next page, or null if this is the last
+	 */
+	public ResultPage(List<ProductResult> results, int offset, String next) {
+		this.results = results;
+		this.offset = offset;
+		this.next = next;
+	}
+
+	public List<ProductResult> getResults() {
+		return results;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return String: cursor of the next page, see SearchService.page, or null if this is the last
+	 */
+	public String getNext() {
+		return next;
+	}
+}
@@ -0,0 +1,235 @@
+package CS4960;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import CS4960.SearchMetrics.Counter;
+
+/**
+ * Follows an append-only review file, adding each new review to a live catalog as
+ * it is written, so ratings and keywords stay current without a restart
+ *
+ * The file is polled every POLL_MS from where the catalog stopped reading it, on a
+ * background thread. Each complete line is parsed with json-simple, checked for an
+ * asin and a rating of 1 to 5 stars as CatalogLoader checks the lines it loads, and
+ * added with ProductCatalog.addReview, which updates the product's average, histogram
+ * and keywords while searches keep running. Once a poll has added any reviews, the
+ * service's result cache is invalidated, so searches see the new ratings within a
+ * poll of them being written
+ *
+ * Some Notes: A line still being written is held back until its newline arrives.
+ *             If the file shrinks it is assumed to have been replaced, and tailing
+ *             stops for good, since reading it again would count every review
+ *             already in the catalog a second time; restart to load the new file
+ *
+ *             Rating searches against an index with a rating prior score ratings
+ *             from the prior built into the index, which only changes when it is
+ *             rebuilt, see RatingPrior
+ *
+ * @author Brian Dong
+ *
+ */
+public class ReviewTailer implements Runnable {
+
+	// Milliseconds between polls of the file
+	public static final long POLL_MS = 1000;
+
+	// Bytes read at a time
+	private static final int READ_SIZE = 1 << 16;
+
+	private final SearchService service;
+	private final ProductCatalog catalog;
+	private final String fileName;
+
+	// Offset of the next unread byte
+	private long position;
+
+	// Start of a line whose newline has not been written yet
+	private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+	private final JSONParser parser = new JSONParser();
+	private volatile Thread thread;
+
+	// Set once the file has shrunk, after which it is no longer read
+	private boolean abandoned;
+	private long added;
+	private long skipped;
+
+	/**
+	 * @param service: service whose catalog reviews are added to
+	 * @param fileName: the review file to follow
+	 * @param position: offset to start reading from
+	 */
+	public ReviewTailer(SearchService service, String fileName, long position) {
+		this.service = service;
+		this.catalog = service.getCatalog();
+		this.fileName = fileName;
+		this.position = position;
+	}
+
+	/**
+	 * Follows the file a service's catalog was loaded from, starting where loading stopped
+	 *
+	 * @param service: the service to keep current
+	 * @return ReviewTailer: the running tailer
+	 */
+	public static ReviewTailer follow(SearchService service) {
+		ProductCatalog catalog = service.getCatalog();
+		ReviewTailer tailer = new ReviewTailer(service, catalog.getReviewFile(), catalog.getLoadedReviewLength());
+		tailer.start();
+		return tailer;
+	}
+
+	/**
+	 * Starts polling the file on a background thread
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		thread = new Thread(this, "review-tailer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops polling the file
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (thread == Thread.currentThread()) {
+			try {
+				if (poll() > 0)
+					service.invalidateCache();
+				Thread.sleep(POLL_MS);
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				System.out.println("Unable to read reviews from '" + fileName + "': " + e.getMessage());
+				try {
+					Thread.sleep(POLL_MS);
+				} catch (InterruptedException e1) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads and adds every complete review written since the last poll
+	 *
+	 * @return int: number of reviews added to the catalog
+	 * @throws IOException
+	 */
+	public synchronized int poll() throws IOException {
+		if (abandoned)
+			return 0;
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+		} catch (IOException e) {
+			// Not written yet
+			return 0;
+		}
+
+		int count = 0;
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if (length < position) {
+				System.out.println("Review file '" + fileName + "' shrank, no longer following it; restart to reload it");
+				abandoned = true;
+				stop();
+				return 0;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+			while (position < length) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+					break;
+				position += read;
+
+				// Hands over each complete line, keeping the rest for the next read
+				byte[] bytes = buffer.array();
+				int start = 0;
+				for (int i = 0; i < read; i++) {
+					if (bytes[i] == '\n') {
+						partial.write(bytes, start, i - start);
+						if (addLine(new String(partial.toByteArray(), StandardCharsets.UTF_8)))
+							count++;
+						partial.reset();
+						start = i + 1;
+					}
+				}
+				partial.write(bytes, start, read - start);
+			}
+		} finally {
+			file.close();
+		}
+
+		if (count > 0)
+			SearchMetrics.global().add(Counter.REVIEWS_INGESTED, count);
+		added += count;
+		return count;
+	}
+
+	/**
+	 * Parses a review and adds it to the catalog
+	 *
+	 * @return boolean: whether the review was added
+	 */
+	private boolean addLine(String line) {
+		if (line.trim().isEmpty())
+			return false;
+		try {
+			JSONObject review = (JSONObject) parser.parse(line);
+			Object overall = review.get("overall");
+			int stars = overall instanceof Number ? KeywordIndex.stars(((Number) overall).doubleValue()) : 0;
+			if (review.get("asin") == null || stars == 0) {
+				skipped++;
+				return false;
+			}
+			return catalog.addReview((String) review.get("asin"), stars, (String) review.get("summary"));
+		} catch (ParseException | ClassCastException e) {
+			skipped++;
+			return false;
+		}
+	}
+
+	/**
+	 * @return long: number of reviews added so far
+	 */
+	public synchronized long getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return long: number of lines that could not be parsed as reviews
+	 */
+	public synchronized long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return long: offset of the next unread byte of the file
+	 */
+	public synchronized long getPosition() {
+		return position;
+	}
+}
@@ -6,41 +6,30 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
 
-import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JTextField;
 import javax.swing.JToggleButton;
-import org.lemurproject.galago.core.retrieval.Retrieval;
-import org.lemurproject.galago.core.retrieval.RetrievalFactory;
-import org.lemurproject.galago.core.retrieval.query.Node;
-import org.lemurproject.galago.core.retrieval.query.StructuredQuery;
-import org.lemurproject.galago.utility.Parameters;
-//import org.lemurproject.galago.core.retrieval.RetrievalFactory;
-import org.lemurproject.galago.core.retrieval.ScoredDocument;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.net.URL;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 
 /**
@@ -66,12 +55,30 @@ import java.util.Set;
  *             pertinent to an end user, such as product name, average star rating, a 
  *             product image if applicable, and positive and negative keywords derived from
  *             reviews associated with the product.
+ *
+ *             Results update as the user types: once typing pauses for DEBOUNCE_MS,
+ *             the query is run on a background thread, cancelling whichever search was
+ *             still running, and only the latest search's results are drawn
+ *
+ *             Results are shown a page at a time; Next and Previous move between pages
+ *             with the cursors the search service hands out, so deeper pages are cut
+ *             from the candidates retrieved for the first rather than searched again
  * 
  * @author Brian Dong
  *
  */
 public class Search implements ActionListener {
 
+	// Milliseconds typing must pause for before the query is run
+	private static final int DEBOUNCE_MS = 250;
+
+	// Number of type-ahead suggestions shown
+	private static final int SUGGESTIONS = 8;
+
+	// Lowest average rating options, and the rating each one filters by
+	private static final String[] MIN_RATING_OPTIONS = { "Any rating", "4+ stars", "3+ stars", "2+ stars" };
+	private static final double[] MIN_RATINGS = { 0, 4, 3, 2 };
+
 	// Swing objects used for UI
 	
 	// Main frame everything else is placed in
@@ -80,23 +87,39 @@ public class Search implements ActionListener {
 	// Panels used to contain the four pages used in this search engine
 	private JPanel homePage, resultsPage, inputToggle, resultsText;
 
+	// Search box and sort toggle, shown at the top of whichever page is drawn
+	private JPanel searchBar, resultsHeader;
+
 	// UI Interactables
 	private JLabel prompt, resultsForLabel;
-	private JButton searchButton, backButton;
+	private JButton searchButton, backButton, previousButton, nextButton;
 	private JToggleButton relevanceOp, rankingOp;
+
+	// Lowest average rating of the results shown
+	private JComboBox<String> minRatingOp;
 	private JTextField queryInput;
 	private ButtonGroup searchOptions;
 
-	// Parameters used for galago retreival
-	private String jsonConfigFile;
-	private Parameters globalParams;
-	private String pathIndexBase;
-	private Retrieval retrieval;
+	// Headless search service this GUI is a client of
+	private SearchService service;
+
+	// Fetches product images off the event thread
+	private ImageLoader imageLoader;
+
+	// Runs the query once typing pauses
+	private Timer debounce;
+
+	// Most recently started search, the only one whose results are drawn
+	private SwingWorker<ResultPage, Void> pending;
 
-	// Data structures used to store loaded data for faster retrieval
-	private HashMap<String, ArrayList<JSONObject>> reviewMap;
-	private HashMap<String, Double> reviewAvg;
-	private HashMap<String, JSONObject> metaMap;
+	// Query of the results shown, cursors of the pages before them and the one after
+	private String shownQuery;
+	private final List<String> previousCursors = new ArrayList<String>();
+	private String shownCursor, nextCursor;
+
+	// Type-ahead suggestions shown under the search box
+	private JPopupMenu suggestionMenu;
+	private boolean choosingSuggestion;
 
 	private DecimalFormat doubleFormat;
 
@@ -106,9 +129,18 @@ public class Search implements ActionListener {
 	 * @throws Exception
 	 */
 	public Search() throws Exception {
+		// Reads in data from file and opens the galago index
+		this(SearchService.open());
+	}
+
+	/**
+	 * Creates the search GUI as a client of an already opened search service
+	 * @param service: the search service used to run queries
+	 */
+	public Search(SearchService service) {
 		frame = new JFrame();
-		// Reads in data from file
-		loadData();
+		this.service = service;
+		this.imageLoader = new ImageLoader();
 		
 		// Initializes GUI panels
 		initializeHome();
@@ -123,176 +155,6 @@ public class Search implements ActionListener {
 		drawHome();
 	}
 
-	/**
-	 * Takes in a search query and returns up to 10 results from that query from
-	 * Galago sorted by relevance
-	 * 
-	 * @param query, the search query provided by the user
-	 * @return List<String> returnList, List with 10 results derived from the query utilizing
-	 * 								    Galago retrieval
-	 * @throws Exception
-	 */
-	public List<String> relevanceSearch(String query) throws Exception {
-		// Utilizes galago retrieval to get a list of products sorted by relevance 
-		Set<String> acins = runQuery(globalParams, "1", query, retrieval, "postings.krovetz", "jm", pathIndexBase, 10)
-				.keySet();
-		
-		// Initializes the list used to return the retrieved products
-		ArrayList<String> returnList = new ArrayList<String>();
-		
-		// Populates the return list with retrieved products, sorted by relevance
-		for (String s : acins) {
-			// Adds product name
-			returnList.add((String) metaMap.get(s).get("title"));
-			// Adds image link if exists
-			if (((JSONArray) metaMap.get(s).get("image")).size() > 0)
-				returnList.add((String) ((JSONArray) metaMap.get(s).get("image")).get(0));
-			else
-				returnList.add("No Image");
-			// Adds additional product data
-			returnList.add("Avg Rating: " + doubleFormat.format(reviewAvg.get(s)) + " " + extractKeywords(s));
-		}
-		return returnList;
-	}
-
-	/**
-	 * Takes in a search query and returns up to 10 results from that query from
-	 * Galago sorted by ranking Utilizes a balancing scheme
-	 * 
-	 * Note: The balancing scheme functions by sorting the list retrieved using galago
-	 * by rating and then populating a list up to 10 slots in descending rating order,
-	 * by inserting a product into the return list if it's relevance score is "close" to
-	 * the product that would populate that spot's relevance score when sorting by rating
-	 * Goal is to get average error below 10%, which may be done over several iterations,
-	 * each one reducing the acceptable threshold to reduce the average error
-	 * 
-	 * @param query, the search query provided by the user
-	 * @return List<String> returnList, List with 10 results derived from the query utilizing
-	 * 								    Galago retrieval
-	 * @throws Exception
-	 */
-	public ArrayList<String> rankingSearch(String query) throws Exception {
-		// Retrieves the top 100 relevant items for a query
-		LinkedHashMap<String, Double> top100 = runQuery(globalParams, "1", query, retrieval, "postings.krovetz", "jm",
-				pathIndexBase, 100);
-		// Gets the acins for the top 100 relevant items
-		ArrayList<String> acins = new ArrayList<String>(top100.keySet());
-
-		// Retrieves the average review ratings for the 100 retrieved items
-		HashMap<Double, ArrayList<String>> ratingsMap = new HashMap<Double, ArrayList<String>>();
-		for (String s : acins) {
-			if (!ratingsMap.containsKey(reviewAvg.get(s)))
-				ratingsMap.put(reviewAvg.get(s), new ArrayList<String>());
-			ratingsMap.get(reviewAvg.get(s)).add(s);
-		}
-
-		// Sorts by average rating
-		ArrayList<Double> averages = new ArrayList<Double>(ratingsMap.keySet());
-		Collections.sort(averages);
-
-		// Variables used to report average error from sorting by relevance
-		double avgError = 0;
-		double totalRelevance = 0;
-		
-		// Threshold used in balancing
-		double threshold = 1.1;
-
-		// Populates the return list with retrieved products, sorted by rating
-		ArrayList<String> returnList = new ArrayList<String>();
-		// Loop to iterate over average ratings
-		for (int i = averages.size() - 1; i > -1; i--) {
-			// Loops over each product with a given average rating
-			for (int j = 0; j < ratingsMap.get(averages.get(i)).size(); j++) {
-
-				// Adds product to list if it is within the acceptable threshold
-				if (top100.get(ratingsMap.get(averages.get(i)).get(j))
-						/ top100.get(acins.get(returnList.size() / 3)) < threshold) {
-					avgError += top100.get(ratingsMap.get(averages.get(i)).get(j))
-							- top100.get(acins.get(returnList.size() / 3));
-					totalRelevance += top100.get(acins.get(returnList.size() / 3));
-
-					// Adds product name
-					returnList.add((String) metaMap.get(ratingsMap.get(averages.get(i)).get(j)).get("title"));
-					// Adds product image if it exists
-					if (((JSONArray) metaMap.get(ratingsMap.get(averages.get(i)).get(j)).get("image")).size() > 0)
-						returnList.add(
-								(String) ((JSONArray) metaMap.get(ratingsMap.get(averages.get(i)).get(j)).get("image"))
-										.get(0));
-					else
-						returnList.add("No Image");
-					// Adds additional product data
-					returnList.add(
-							"Avg Rating: " + doubleFormat.format(reviewAvg.get(ratingsMap.get(averages.get(i)).get(j)))
-									+ " " + extractKeywords(ratingsMap.get(averages.get(i)).get(j)));
-					if (returnList.size() >= 60)
-						break;
-				}
-			}
-			// Breaks the loop once populated
-			if (returnList.size() >= 60) {
-				// Checks to see if average error is acceptable
-				if ((avgError / 10.0) / (totalRelevance / 10.0) < 0.05)
-					break;
-				// Reruns population process if error is too high, with a lower threshold
-				else {
-					threshold += -0.005;
-					returnList.clear();
-					avgError = 0;
-					totalRelevance = 0;
-					i = averages.size() - 1;
-				}
-			}
-		}
-
-		// Reports average error -- used for analysis purposes
-		System.out.println("Ultimate Threshold Used: " + threshold);
-		System.out.println("Average Error: " + avgError / 10.0);
-		System.out.println("Total Relevance: " + totalRelevance / 10.0);
-		System.out.println("Average % Change: " + (avgError / 10.0) / (totalRelevance / 10.0));
-		return returnList;
-	}
-
-	/**
-	 * Retrieves positive and negative keywords for a given product's asin
-	 * if possible
-	 * 
-	 * Note: keywords are derived from a the user provided summaries of their reviews
-	 * Positive keywords are derived from 4-5 star reviews, negative from 1-2 star reviews
-	 * Returned string may be empty, or return only positive or negative reviews, this is 
-	 * expected behavior if there are not enough reviews to draw from
-	 * 
-	 * @param String asin: the product to extract keywords for
-	 * @return String keywords: extracted keywords
-	 */
-	private String extractKeywords(String asin) {
-		// Initializes strings for storage
-		String positive = "";
-		String negative = "";
-		
-		// Gets JSONObject of a given product from asin, then iterates through its reviews
-		for (JSONObject obj : reviewMap.get(asin)) {
-			// Extract keywords if review is positive
-			if (positive.compareTo("") == 0 && (Double) obj.get("overall") >= 4
-					&& !((String) obj.get("summary")).contains("Star")) // Removes common, unhelpful summaries
-				positive += obj.get("summary");
-			// Extract keywords if review is negative
-			else if (negative.compareTo("") == 0 && (Double) obj.get("overall") < 3
-					&& !((String) obj.get("summary")).contains("Star"))// Removes common, unhelpful summaries
-				negative += obj.get("summary");
-
-			// Break if keywords have been extracted
-			if (positive.compareTo("") != 0 && negative.compareTo("") != 0)
-				break;
-		}
-		
-		// Creates return string, only populating if a keyword was extracted
-		if (positive.compareTo("") != 0)
-			positive = "What 4-5 Stars Say: " + positive;
-		if (negative.compareTo("") != 0)
-			negative = "   What 1-2 Stars Say: " + negative;
-		return positive + negative;
-	}
-
 	/**
 	 * Draws the swing home page for the search engine's GUI
 	 */
@@ -300,8 +162,10 @@ public class Search implements ActionListener {
 		// Clear
 		frame.getContentPane().removeAll();
 		// Reset format
+		homePage.add(searchBar, BorderLayout.CENTER);
 		frame.add(homePage, BorderLayout.CENTER);
 		frame.pack();
+		queryInput.requestFocusInWindow();
 	}
 
 	/**
@@ -315,11 +179,22 @@ public class Search implements ActionListener {
 	 * @throws Exception
 	 */
 	public void drawResults(String query, boolean sort) throws Exception {
-		// create a search engine based on the params file.
-		jsonConfigFile = "Data/rm_model.json";
-		globalParams = Parameters.parseFile(jsonConfigFile);
-		pathIndexBase = "Data/index";
-		retrieval = RetrievalFactory.instance(pathIndexBase, Parameters.create());
+		// Initializes and then populates results using user query
+		drawResults(query, service.firstPage(query.toLowerCase(), sort ? SortMode.RELEVANCE : SortMode.RATING));
+	}
+
+	/**
+	 * Draws the swing results page for an already retrieved page of results
+	 *
+	 * @param query: the query the results were retrieved for
+	 * @param page: the page to draw
+	 */
+	private void drawResults(String query, ResultPage page) {
+		List<ProductResult> results = page.getResults();
+		shownQuery = query;
+		nextCursor = page.getNext();
+		previousButton.setEnabled(!previousCursors.isEmpty());
+		nextButton.setEnabled(nextCursor != null);
 
 		// Clears frame
 		frame.getContentPane().removeAll();
@@ -328,18 +203,9 @@ public class Search implements ActionListener {
 		// Sets text
 		resultsForLabel.setText("Results for " + '"' + query + '"');
 
-		// Initializes and then populates results using user query
-		List<String> results;
-		if (sort)
-			results = relevanceSearch(query.toLowerCase());
-		else
-			results = rankingSearch(query.toLowerCase());
-
 		// Loops to draw results on GUI
-		for (int i = 0; i < 30; i += 3) {
-			// Breaks early if results has less than 10 products
-			if (i == results.size())
-				break;
+		for (int i = 0; i < results.size(); i++) {
+			ProductResult result = results.get(i);
 
 			// Creates panel to contain product result
 			JPanel resultsPane = new JPanel();
@@ -350,17 +216,31 @@ public class Search implements ActionListener {
 			JPanel textPart = new JPanel();
 			textPart.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 30));
 			textPart.setLayout(new GridLayout(0, 1));
-			textPart.add(new JLabel((i / 3 + 1) + ": " + results.get(i)));
-			textPart.add(new JLabel(results.get(i + 2)));
+			textPart.add(new JLabel((page.getOffset() + i + 1) + ": " + result.getTitle()));
+			textPart.add(new JLabel("Avg Rating: " + doubleFormat.format(result.getRating()) + " " + result.getKeywords()));
 			
 			// Adds product text
 			resultsPane.add(textPart, BorderLayout.LINE_START);
 			
-			// Adds image if it exists
-			if (results.get(i + 1).compareTo("No Image") != 0) {
-				URL url = new URL(results.get(i + 1));
-				BufferedImage pic = ImageIO.read(url);
-				resultsPane.add(new JLabel(new ImageIcon(pic)), BorderLayout.LINE_END);
+			// Adds image if it exists, loading it in the background behind a placeholder
+			if (result.hasImage()) {
+				final JLabel picture = new JLabel("Loading image...");
+				picture.setPreferredSize(new Dimension(ImageLoader.THUMBNAIL_SIZE, ImageLoader.THUMBNAIL_SIZE));
+				resultsPane.add(picture, BorderLayout.LINE_END);
+				imageLoader.load(result.getImage(), new ImageLoader.Callback() {
+					@Override
+					public void loaded(BufferedImage image) {
+						if (image == null) {
+							picture.setText("No Image");
+							return;
+						}
+						picture.setText(null);
+						picture.setIcon(new ImageIcon(image));
+						// Only resizes the frame if these results are still shown
+						if (picture.isShowing())
+							frame.pack();
+					}
+				});
 			} else
 				resultsPane.add(new JLabel(), BorderLayout.LINE_END);
 			
@@ -369,8 +249,138 @@ public class Search implements ActionListener {
 		}
 
 		// Shows results
+		resultsHeader.add(searchBar, BorderLayout.PAGE_START);
 		frame.add(resultsPage, BorderLayout.LINE_START);
 		frame.pack();
+		queryInput.requestFocusInWindow();
+	}
+
+	/**
+	 * Runs the query in the search box on a background thread, cancelling the search
+	 * started before it, and draws the results if no newer search has started by the
+	 * time they are retrieved
+	 */
+	private void startSearch() {
+		debounce.stop();
+		suggestionMenu.setVisible(false);
+		if (pending != null)
+			pending.cancel(true);
+
+		final String query = queryInput.getText();
+		if (query.trim().isEmpty()) {
+			pending = null;
+			return;
+		}
+		final SortMode sort = relevanceOp.isSelected() ? SortMode.RELEVANCE : SortMode.RATING;
+		final double minRating = MIN_RATINGS[minRatingOp.getSelectedIndex()];
+
+		// A new search starts again from its first page
+		previousCursors.clear();
+		shownCursor = new PageCursor(query.toLowerCase(), sort, 0).encode();
+		execute(query, new Callable<ResultPage>() {
+			@Override
+			public ResultPage call() throws Exception {
+				// Filtered results are a single page
+				if (minRating > 0)
+					return new ResultPage(service.search(query.toLowerCase(), sort,
+							new FacetFilter.Builder().minRating(minRating).build()).getResults(), 0, null);
+				return service.firstPage(query.toLowerCase(), sort);
+			}
+		});
+	}
+
+	/**
+	 * Moves to the page of the shown search's results a cursor points to
+	 *
+	 * @param cursor: cursor of the page
+	 */
+	private void startPage(final String cursor) {
+		if (pending != null)
+			pending.cancel(true);
+		shownCursor = cursor;
+		execute(shownQuery, new Callable<ResultPage>() {
+			@Override
+			public ResultPage call() throws Exception {
+				return service.page(cursor);
+			}
+		});
+	}
+
+	/**
+	 * Runs a search in the background, drawing its page if no newer search has started
+	 * by the time it is retrieved
+	 *
+	 * @param query: the query, as shown above the results
+	 * @param search: retrieves the page
+	 */
+	private void execute(final String query, final Callable<ResultPage> search) {
+		pending = new SwingWorker<ResultPage, Void>() {
+			@Override
+			protected ResultPage doInBackground() throws Exception {
+				return search.call();
+			}
+
+			@Override
+			protected void done() {
+				// Drops results of searches that were replaced by a newer one
+				if (pending != this || isCancelled())
+					return;
+				pending = null;
+				try {
+					drawResults(query, get());
+				} catch (InterruptedException | CancellationException e) {
+					// Replaced by a newer search
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		};
+		pending.execute();
+	}
+
+	/**
+	 * Shows suggestions for the text in the search box, answered from memory so it is
+	 * done on every keystroke
+	 */
+	private void showSuggestions() {
+		if (choosingSuggestion)
+			return;
+		String typed = queryInput.getText();
+		List<String> found = typed.trim().isEmpty() ? null : service.suggest(typed, SUGGESTIONS);
+		if (found == null || found.isEmpty() || !queryInput.isShowing()) {
+			suggestionMenu.setVisible(false);
+			return;
+		}
+
+		suggestionMenu.removeAll();
+		for (final String suggestion : found) {
+			JMenuItem item = new JMenuItem(suggestion);
+			item.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					// Fills in the suggestion and searches for it straight away
+					choosingSuggestion = true;
+					queryInput.setText(suggestion);
+					choosingSuggestion = false;
+					startSearch();
+				}
+			});
+			suggestionMenu.add(item);
+		}
+		suggestionMenu.pack();
+		suggestionMenu.show(queryInput, 0, queryInput.getHeight());
+	}
+
+	/**
+	 * Stops any search that is waiting to run or still running
+	 */
+	private void cancelSearch() {
+		debounce.stop();
+		suggestionMenu.setVisible(false);
+		if (pending != null) {
+			pending.cancel(true);
+			pending = null;
+		}
 	}
 
 	/**
@@ -378,19 +388,22 @@ public class Search implements ActionListener {
 	 */
 	@Override
 	public void actionPerformed(ActionEvent e) {
-		// Handles case when user searches
-		if (e.getActionCommand().compareTo("Search") == 0)
-			try {
-				// Runs user query and draws results sorted as specified by user
-				drawResults((String) queryInput.getText(), relevanceOp.isSelected());
-			} catch (ParseException | IOException e1) {
-				e1.printStackTrace();
-			} catch (Exception e1) {
-				e1.printStackTrace();
-			}
+		// Handles case when user searches, or changes how results are sorted or filtered
+		if (e.getActionCommand().compareTo("Search") == 0 || e.getSource() == relevanceOp || e.getSource() == rankingOp
+				|| e.getSource() == minRatingOp)
+			// Runs user query in the background and draws results sorted as specified by user
+			startSearch();
+		// Handles moving between pages of results
+		else if (e.getSource() == nextButton && nextCursor != null) {
+			previousCursors.add(shownCursor);
+			startPage(nextCursor);
+		} else if (e.getSource() == previousButton && !previousCursors.isEmpty())
+			startPage(previousCursors.remove(previousCursors.size() - 1));
 		// Handles when user wants to return to homepage
-		else if (e.getActionCommand().compareTo("Back") == 0)
+		else if (e.getActionCommand().compareTo("Back") == 0) {
+			cancelSearch();
 			drawHome();
+		}
 	}
 
 	/**
@@ -410,21 +423,57 @@ public class Search implements ActionListener {
 		relevanceOp.setPreferredSize(new Dimension(80, 20));
 		rankingOp.setPreferredSize(new Dimension(80, 20));
 		relevanceOp.setSelected(true);
+		relevanceOp.addActionListener(this);
+		rankingOp.addActionListener(this);
 		searchOptions.add(relevanceOp);
 		searchOptions.add(rankingOp);
 		inputToggle.add(relevanceOp);
 		inputToggle.add(rankingOp);
 
-		// Sets up search box
+		// Setup filter for the lowest average rating shown
+		minRatingOp = new JComboBox<String>(MIN_RATING_OPTIONS);
+		minRatingOp.addActionListener(this);
+		inputToggle.add(minRatingOp);
+
+		// Sets up search box, searching once the user stops typing or presses enter
 		queryInput = new JTextField(50);
+		queryInput.setActionCommand("Search");
+		queryInput.addActionListener(this);
+		debounce = new Timer(DEBOUNCE_MS, this);
+		debounce.setActionCommand("Search");
+		debounce.setRepeats(false);
+		suggestionMenu = new JPopupMenu();
+		// Keeps focus in the search box so typing continues while suggestions are shown
+		suggestionMenu.setFocusable(false);
+		queryInput.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				debounce.restart();
+				showSuggestions();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				debounce.restart();
+				showSuggestions();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+
+		searchBar = new JPanel();
+		searchBar.setLayout(new BorderLayout());
+		searchBar.add(queryInput, BorderLayout.LINE_START);
+		searchBar.add(inputToggle, BorderLayout.EAST);
 
 		// Lay everything out
 		homePage = new JPanel();
 		homePage.setBorder(BorderFactory.createEmptyBorder(30, 30, 10, 30));
 		homePage.setLayout(new BorderLayout());
 		homePage.add(prompt, BorderLayout.NORTH);
-		homePage.add(queryInput, BorderLayout.LINE_START);
-		homePage.add(inputToggle, BorderLayout.EAST);
+		homePage.add(searchBar, BorderLayout.CENTER);
 		homePage.add(searchButton, BorderLayout.PAGE_END);
 	}
 
@@ -436,148 +485,44 @@ public class Search implements ActionListener {
 		backButton = new JButton("Back");
 		backButton.addActionListener(this);
 
+		// Setup buttons moving between pages of results
+		previousButton = new JButton("Previous");
+		previousButton.addActionListener(this);
+		nextButton = new JButton("Next");
+		nextButton.addActionListener(this);
+		JPanel pageButtons = new JPanel();
+		pageButtons.setLayout(new BorderLayout());
+		pageButtons.add(previousButton, BorderLayout.LINE_START);
+		pageButtons.add(backButton, BorderLayout.CENTER);
+		pageButtons.add(nextButton, BorderLayout.LINE_END);
+
 		resultsForLabel = new JLabel("");
 
+		// The search bar is moved in here whenever results are drawn
+		resultsHeader = new JPanel();
+		resultsHeader.setLayout(new BorderLayout());
+		resultsHeader.add(resultsForLabel, BorderLayout.PAGE_END);
+
 		resultsPage = new JPanel();
 		resultsPage.setBorder(BorderFactory.createEmptyBorder(30, 30, 10, 30));
 		resultsPage.setLayout(new BorderLayout());
 		resultsPage.add(resultsText, BorderLayout.CENTER);
-		resultsPage.add(backButton, BorderLayout.PAGE_END);
-		resultsPage.add(resultsForLabel, BorderLayout.PAGE_START);
-
-	}
-
-
-	/**
-	 * Utilizes galago to run retrieval over amazon user dataset using a user specified query
-	 * @param p: parameters used for galago retrieval;
-	 * @param qid
-	 * @param query
-	 * @param retrieval
-	 * @param model
-	 * @param smoothing
-	 * @param pathIndexBase
-	 * @param requested
-	 * @return
-	 * @throws Exception
-	 */
-	private static LinkedHashMap<String, Double> runQuery(Parameters p, String qid, String query, Retrieval retrieval,
-			String model, String smoothing, String pathIndexBase, int requested) throws Exception {
-		p.set("requested", requested); // set the maximum number of document retrieved for each query.
-		p.set("scorer", "dirichlet"); // set JM smoothing method
-		p.set("mu", 2000); // set the parameters in JM method.
-
-		if (model.length() > 0) {
-			if (smoothing.length() > 0) {
-				String[] terms = query.split(" ");
-				query = "";
-				for (String t : terms) {
-					query += "#extents:part=" + model + ":" + t + "() ";
-				}
-			}
-			query = "#combine" + "(" + query + ")"; // apply the retrieval model to the query if exists
-		}
-		Node root = StructuredQuery.parse(query); // turn the query string into a query tree
-		System.out.println(root.toString());
-		Node transformed = retrieval.transformQuery(root, p); // apply traversals
-		System.out.println(transformed.toString());
-		List<ScoredDocument> results = retrieval.executeQuery(transformed, p).scoredDocuments; // issue the query!
-		System.out.println("****************");
-
-		LinkedHashMap<String, Double> docs = new LinkedHashMap<String, Double>();
-		for (ScoredDocument sd : results) {
-			System.out.println(sd.getName() + ":" + sd.getScore());
-			docs.put(sd.getName(), sd.getScore());
-		}
-		return docs;
+		resultsPage.add(pageButtons, BorderLayout.PAGE_END);
+		resultsPage.add(resultsHeader, BorderLayout.PAGE_START);
 
 	}
 
-	/**
-	 * Reads in Amazon product data from files and stores them in
-	 * a number of data structures used for retrieval
-	 * @throws ParseException
-	 * @throws IOException
-	 */
-	private void loadData() throws ParseException, IOException {
-		// Initializes fields used to store in read in data
-		reviewMap = new HashMap<String, ArrayList<JSONObject>>();
-		reviewAvg = new HashMap<String, Double>();
-		metaMap = new HashMap<String, JSONObject>();
-
-		// JSON Object used to iterate
-		JSONObject obj;
-		// The name of the file to open.
-		String fileName = "Data/Musical_Instruments_5.json";
-
-		// This will reference one line at a time
-		String line = null;
-
-		// Reads in product reviews
-		try {
-			// FileReader reads text files in the default encoding.
-			FileReader fileReader = new FileReader(fileName);
-
-			// Always wrap FileReader in BufferedReader.
-			BufferedReader bufferedReader = new BufferedReader(fileReader);
-
-			// Read every amazon product reviews in input file
-			while ((line = bufferedReader.readLine()) != null) {
-				obj = (JSONObject) new JSONParser().parse(line);
-
-				// Adds new product if it doesn't appear yet
-				if (!reviewMap.containsKey((String) obj.get("asin"))) {
-					reviewMap.put((String) obj.get("asin"), new ArrayList<JSONObject>());
-					reviewAvg.put((String) obj.get("asin"), 0.0);
-				}
-
-				// Adds review
-				reviewMap.get((String) obj.get("asin")).add(obj);
-				reviewAvg.put((String) obj.get("asin"),
-						reviewAvg.get((String) obj.get("asin")) + (double) obj.get("overall"));
-			}
-			// Always close files.
-			bufferedReader.close();
-		} catch (FileNotFoundException ex) {
-			System.out.println("Unable to open file '" + fileName + "'");
-		} catch (IOException ex) {
-			System.out.println("Error reading file '" + fileName + "'");
-			// Or we could just do this:
-			// ex.printStackTrace();
-		} catch (ParseException e) {
-			e.printStackTrace();
-		}
-
-		// Maps asin numbers to their average review
-		for (String key : reviewMap.keySet())
-			reviewAvg.put(key, reviewAvg.get(key) / reviewMap.get(key).size());
 
-		// FileReader reads text files in the default encoding.
-		FileReader fileReader = new FileReader("Data/meta_Musical_Instruments.json");
-
-		// Always wrap FileReader in BufferedReader.
-		BufferedReader bufferedReader = new BufferedReader(fileReader);
-
-		// Reads in product metadata
-		while ((line = bufferedReader.readLine()) != null) {
-			obj = (JSONObject) new JSONParser().parse(line);
-
-			if (reviewMap.containsKey((String) obj.get("asin"))) {
-				metaMap.put((String) obj.get("asin"), obj);
-			}
-		}
-		// Always close files.
-		bufferedReader.close();
-
-	}
-	
 	/**
 	 * Program entry point
 	 * @param args
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
-		new Search();
+		SearchService service = SearchService.open();
+		// Picks up reviews appended to the review file while running
+		ReviewTailer.follow(service);
+		new Search(service);
 	}
 
 }
@@ -0,0 +1,545 @@
+package CS4960;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lemurproject.galago.core.parse.Document;
+import org.lemurproject.galago.core.parse.Document.DocumentComponents;
+import org.lemurproject.galago.core.retrieval.MultiRetrieval;
+import org.lemurproject.galago.core.retrieval.Retrieval;
+import org.lemurproject.galago.core.retrieval.RetrievalFactory;
+import org.lemurproject.galago.core.retrieval.ScoredDocument;
+import org.lemurproject.galago.core.retrieval.query.Node;
+import org.lemurproject.galago.utility.Parameters;
+
+import CS4960.SearchMetrics.Counter;
+import CS4960.SearchMetrics.Stage;
+
+/**
+ * Long-lived wrapper around the galago index used by the search engine
+ *
+ * The index and retrieval parameters are opened exactly once, when the engine is
+ * created, and then shared by every query for the lifetime of the program. The
+ * parameters read from the config file are never modified after construction; each
+ * query works on its own copy, so any number of threads may call runQuery at once
+ *
+ * Some Notes: The retrieval settings (scorer, mu, requested) that used to be written
+ *             into the shared parameters on every query are now fixed once here, and
+ *             only the number of requested documents is set per query
+ *
+ *             If the index has a rating prior part (see RatingPrior), rating queries
+ *             score each product's prior alongside its relevance inside galago, using
+ *             galago's MaxScore processing model so that only the top k are kept and
+ *             products that cannot reach the top k are skipped early
+ *
+ *             Query trees are built directly by QueryBuilder, and transformed trees
+ *             are kept in a QueryPlanCache, so a repeated query skips galago's
+ *             traversals entirely
+ *
+ *             The index may be split into shards, listed as "shards" in the config
+ *             file. Queries are then transformed once against all shards together,
+ *             so every term is annotated with whole-collection statistics and scores
+ *             from different shards are comparable, and executed on every shard at
+ *             once, keeping each shard's top k and merging them into the overall top k
+ *
+ *             A query may be limited to a working set of documents, such as the
+ *             products a FacetFilter allows, which galago then scores alone instead
+ *             of every document matching the query
+ *
+ *             With "expansion": "rm3" in the config file, queries are expanded with
+ *             RM3 pseudo relevance feedback, see RelevanceFeedback, configured with
+ *             galago's fbDocs, fbTerm and fbOrigWeight. The feedback retrieval is only
+ *             run when a query's expanded plan is not cached and its relevance model
+ *             was neither cached nor precomputed offline, listed as "feedbackFile"
+ *
+ * @author Brian Dong
+ *
+ */
+public class SearchEngine {
+
+	// Default locations of the galago config file and index
+	public static final String DEFAULT_CONFIG = "Data/rm_model.json";
+	public static final String DEFAULT_INDEX = "Data/index";
+
+	// Index part used for query terms
+	private static final String DEFAULT_PART = "postings.krovetz";
+
+	// Default weight of the rating prior against relevance in rating queries
+	private static final double DEFAULT_PRIOR_WEIGHT = 0.3;
+
+	// Galago processing model used for rating queries, evaluates top k with dynamic pruning
+	private static final String PRUNING_MODEL = "org.lemurproject.galago.core.retrieval.processing.MaxScoreDocumentModel";
+
+	// Galago processing model used for filtered queries, only scores the listed documents
+	private static final String WORKING_SET_MODEL = "org.lemurproject.galago.core.retrieval.processing.WorkingSetDocumentModel";
+
+	// Queries used to page in the index when the engine is first opened
+	private static final String[] DEFAULT_WARMUP = { "guitar", "strings", "microphone", "cable", "pedal" };
+
+	// Orders documents from worst to best, by score and then by name so merges are repeatable
+	private static final Comparator<ScoredDocument> WORST_FIRST = new Comparator<ScoredDocument>() {
+		@Override
+		public int compare(ScoredDocument a, ScoredDocument b) {
+			int byScore = Double.compare(a.getScore(), b.getScore());
+			return byScore != 0 ? byScore : b.getName().compareTo(a.getName());
+		}
+	};
+
+	// Parameters used for galago retrieval, never modified after construction
+	private final Parameters globalParams;
+	private final String pathIndexBase;
+	private final String part;
+
+	// Whole index, used to transform queries with whole-collection statistics
+	private final Retrieval retrieval;
+
+	// Shards queries are executed on, just the whole index if it is not sharded
+	private final List<Retrieval> shards;
+	private final ExecutorService shardPool;
+
+	// Index part holding the rating prior, or null if the index has none
+	private final String ratingPriorPart;
+	private final double ratingPriorWeight;
+
+	// Transformed query trees of recent queries
+	private final QueryPlanCache plans = new QueryPlanCache(QueryPlanCache.DEFAULT_ENTRIES);
+
+	// Relevance models queries are expanded with, or null if queries are not expanded
+	private final RelevanceFeedback feedback;
+
+	// Terms of feedback documents are read tokenized, without their text or metadata
+	private static final DocumentComponents FEEDBACK_COMPONENTS = new DocumentComponents(false, false, true);
+
+	/**
+	 * Opens the default index using the default config file
+	 * @throws Exception
+	 */
+	public SearchEngine() throws Exception {
+		this(DEFAULT_CONFIG, DEFAULT_INDEX);
+	}
+
+	/**
+	 * Opens the galago index at pathIndexBase using the retrieval parameters in
+	 * jsonConfigFile, then warms the index
+	 *
+	 * Note: if the config file lists "shards", those indexes are opened instead of
+	 * pathIndexBase
+	 *
+	 * @param jsonConfigFile: parameters used for galago retrieval
+	 * @param pathIndexBase: location of the galago index
+	 * @throws Exception
+	 */
+	public SearchEngine(String jsonConfigFile, String pathIndexBase) throws Exception {
+		// Reads in the config once, and fixes the retrieval settings shared by every query
+		globalParams = Parameters.parseFile(jsonConfigFile);
+		globalParams.set("scorer", "dirichlet"); // set dirichlet smoothing method
+		globalParams.set("mu", 2000); // set the parameters in dirichlet method.
+
+		this.pathIndexBase = pathIndexBase;
+		this.part = globalParams.get("part", DEFAULT_PART);
+		if (globalParams.isList("shards")) {
+			// Opens every shard once to execute on, and transforms with all of them together
+			List<String> paths = globalParams.getList("shards", String.class);
+			List<Retrieval> opened = new ArrayList<Retrieval>(paths.size());
+			for (String path : paths)
+				opened.add(RetrievalFactory.instance(path, Parameters.create()));
+			this.retrieval = new MultiRetrieval(opened, Parameters.create());
+			this.shards = Collections.unmodifiableList(opened);
+			this.shardPool = Executors.newFixedThreadPool(Math.min(paths.size(), Runtime.getRuntime().availableProcessors()),
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "shard-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			System.out.println("Opened " + paths.size() + " index shards");
+		} else {
+			this.retrieval = RetrievalFactory.instance(pathIndexBase, Parameters.create());
+			this.shards = Collections.singletonList(retrieval);
+			this.shardPool = null;
+		}
+
+		// Uses the rating prior if it has been built into the index
+		String priorPart = globalParams.get("ratingPrior", RatingPrior.DEFAULT_PART);
+		boolean hasPrior = true;
+		for (Retrieval shard : shards)
+			hasPrior &= shard.getAvailableParts().containsKey(priorPart);
+		if (hasPrior)
+			this.ratingPriorPart = priorPart;
+		else {
+			System.out.println("Index has no rating prior part '" + priorPart + "', rating queries will be re-ranked");
+			this.ratingPriorPart = null;
+		}
+		this.ratingPriorWeight = globalParams.get("ratingPriorWeight", DEFAULT_PRIOR_WEIGHT);
+
+		// Expands queries with pseudo relevance feedback if asked to
+		if ("rm3".equals(globalParams.get("expansion", "none"))) {
+			feedback = new RelevanceFeedback((int) globalParams.get("fbDocs", (long) RelevanceFeedback.DEFAULT_FEEDBACK_DOCS),
+					(int) globalParams.get("fbTerm", (long) RelevanceFeedback.DEFAULT_FEEDBACK_TERMS),
+					globalParams.get("fbOrigWeight", RelevanceFeedback.DEFAULT_ORIGINAL_WEIGHT),
+					RelevanceFeedback.DEFAULT_ENTRIES, RelevanceFeedback.DEFAULT_DOCUMENT_ENTRIES);
+			if (globalParams.isString("feedbackFile"))
+				feedback.load(globalParams.getString("feedbackFile"));
+		} else
+			feedback = null;
+
+		warm();
+	}
+
+	/**
+	 * Runs a handful of queries so the first user query does not pay for paging
+	 * in the index
+	 *
+	 * Note: queries can be configured with "warmupQueries" in the config file
+	 */
+	private void warm() {
+		List<String> queries = globalParams.isList("warmupQueries")
+				? globalParams.getList("warmupQueries", String.class)
+				: Arrays.asList(DEFAULT_WARMUP);
+		for (String query : queries) {
+			try {
+				runQuery(query, 10);
+			} catch (Exception e) {
+				System.out.println("Unable to warm index with query '" + query + "'");
+			}
+		}
+	}
+
+	/**
+	 * Returns a fresh copy of the retrieval parameters for a single query, so no
+	 * two queries ever share a mutable Parameters object
+	 *
+	 * @param requested: the maximum number of documents to retrieve
+	 * @param working: names of the only documents that may be retrieved, or null for all
+	 * @return Parameters: per-query parameters
+	 */
+	private Parameters queryParams(int requested, List<String> working) {
+		Parameters p = globalParams.clone();
+		p.set("requested", requested); // set the maximum number of document retrieved for each query.
+		if (working != null) {
+			if (!supportsWorkingSet())
+				throw new IllegalStateException("Working sets are not supported on a sharded index");
+			p.set("working", working);
+			p.set("processingModel", WORKING_SET_MODEL);
+		}
+		return p;
+	}
+
+	/**
+	 * Utilizes galago to run retrieval over amazon user dataset using a user specified query
+	 *
+	 * Note: safe to call from multiple threads at once
+	 *
+	 * @param query: the search query provided by the user
+	 * @param requested: the maximum number of documents to retrieve
+	 * @return LinkedHashMap<String, Double> docs: asins of retrieved products mapped to
+	 * 											   their scores, in ranked order
+	 * @throws Exception
+	 */
+	public LinkedHashMap<String, Double> runQuery(String query, int requested) throws Exception {
+		return runQuery(query, requested, null);
+	}
+
+	/**
+	 * Runs a query scoring only a working set of documents
+	 *
+	 * Note: working sets are only supported on an unsharded index, see supportsWorkingSet
+	 *
+	 * @param query: the search query provided by the user
+	 * @param requested: the maximum number of documents to retrieve
+	 * @param working: names of the only documents that may be retrieved, or null for all
+	 * @return LinkedHashMap<String, Double> docs: asins of retrieved products mapped to
+	 * 											   their scores, in ranked order
+	 * @throws Exception
+	 */
+	public LinkedHashMap<String, Double> runQuery(String query, int requested, List<String> working)
+			throws Exception {
+		Parameters p = queryParams(requested, working);
+		return execute(plan("relevance", QueryBuilder.terms(query), p, feedback != null), p);
+	}
+
+	/**
+	 * Retrieves the top k products for a query scored by relevance and rating together,
+	 * with each product's rating prior weighted into its score inside galago
+	 *
+	 * Note: only available when hasRatingPrior is true
+	 *
+	 * @param query: the search query provided by the user
+	 * @param k: the number of products to retrieve
+	 * @return LinkedHashMap<String, Double> docs: asins of retrieved products mapped to
+	 * 											   their combined scores, in ranked order
+	 * @throws Exception
+	 */
+	public LinkedHashMap<String, Double> runRatingQuery(String query, int k) throws Exception {
+		return runRatingQuery(query, k, null);
+	}
+
+	/**
+	 * Runs a rating query scoring only a working set of documents
+	 *
+	 * Note: the working set takes the place of dynamic pruning, since only the listed
+	 * documents are scored anyway
+	 *
+	 * @param query: the search query provided by the user
+	 * @param k: the number of products to retrieve
+	 * @param working: names of the only documents that may be retrieved, or null for all
+	 * @return LinkedHashMap<String, Double> docs: asins of retrieved products mapped to
+	 * 											   their combined scores, in ranked order
+	 * @throws Exception
+	 */
+	public LinkedHashMap<String, Double> runRatingQuery(String query, int k, List<String> working) throws Exception {
+		if (ratingPriorPart == null)
+			throw new IllegalStateException("Index '" + pathIndexBase + "' has no rating prior");
+
+		Parameters p = queryParams(k, working);
+		if (working == null)
+			p.set("processingModel", PRUNING_MODEL);
+		return execute(plan("rating", QueryBuilder.terms(query), p, feedback != null), p);
+	}
+
+	/**
+	 * @return boolean: whether queries may be limited to a working set, which galago
+	 * 					resolves by name against a single index, so not when sharded
+	 */
+	public boolean supportsWorkingSet() {
+		return shardPool == null;
+	}
+
+	/**
+	 * @return boolean: whether the index has a rating prior for runRatingQuery
+	 */
+	public boolean hasRatingPrior() {
+		return ratingPriorPart != null;
+	}
+
+	/**
+	 * @return boolean: whether queries are expanded with pseudo relevance feedback
+	 */
+	public boolean isExpanding() {
+		return feedback != null;
+	}
+
+	/**
+	 * Estimates a query's relevance model from its top fbDocs results, without caching it
+	 *
+	 * Note: only available when isExpanding is true
+	 *
+	 * @param terms: the query's normalized terms
+	 * @return Map<String, Double>: the query's expansion terms mapped to their probabilities
+	 * @throws Exception
+	 */
+	public Map<String, Double> estimateFeedback(List<String> terms) throws Exception {
+		if (feedback == null)
+			throw new IllegalStateException("Query expansion is not enabled");
+
+		long start = System.nanoTime();
+		Parameters p = queryParams(feedback.getFeedbackDocs(), null);
+		LinkedHashMap<String, Double> top = execute(plan("relevance", terms, p, false), p);
+		Map<String, Double> model = feedback.estimate(terms, top, new RelevanceFeedback.Documents() {
+			@Override
+			public List<String> terms(String name) throws IOException {
+				Document doc = retrieval.getDocument(name, FEEDBACK_COMPONENTS);
+				return doc == null ? null : doc.terms;
+			}
+		});
+		SearchMetrics.global().record(Stage.FEEDBACK, start);
+		return model;
+	}
+
+	/**
+	 * Returns a query's relevance model, estimating and caching it if it has none
+	 */
+	private Map<String, Double> feedbackModel(List<String> terms) throws Exception {
+		Map<String, Double> model = feedback.get(terms);
+		if (model == null) {
+			model = estimateFeedback(terms);
+			feedback.put(terms, model);
+		}
+		return model;
+	}
+
+	/**
+	 * Returns the transformed tree for a query, from the plan cache if it was run recently
+	 *
+	 * Note: every parameter a plan depends on other than its kind is fixed when the
+	 * engine is opened, so the kind and terms are enough to identify it. An expanded
+	 * plan includes its expansion terms, so a cached one needs no feedback at all
+	 *
+	 * @param kind: "relevance" or "rating"
+	 * @param terms: the query's normalized terms
+	 * @param p: this query's parameters
+	 * @param expand: whether to expand the query with its relevance model
+	 * @return Node: the transformed query tree, ready to execute
+	 * @throws Exception
+	 */
+	private Node plan(String kind, List<String> terms, Parameters p, boolean expand) throws Exception {
+		SearchMetrics metrics = SearchMetrics.global();
+		String key = QueryPlanCache.key(expand ? kind + "+rm3" : kind, terms);
+		Node plan = plans.get(key);
+		if (plan != null) {
+			metrics.increment(Counter.PLAN_CACHE_HITS);
+			return plan;
+		}
+		metrics.increment(Counter.PLAN_CACHE_MISSES);
+
+		Map<String, Double> expansion = expand ? feedbackModel(terms) : null;
+
+		long start = System.nanoTime();
+		Node root = QueryBuilder.combine(terms, part);
+		if (expansion != null)
+			root = QueryBuilder.expand(root, expansion, part, feedback.getOriginalWeight());
+		if (kind.equals("rating"))
+			root = QueryBuilder.weighPrior(root, ratingPriorPart, ratingPriorWeight);
+		metrics.record(Stage.BUILD, start);
+
+		Cancellation.check();
+		start = System.nanoTime();
+		plan = retrieval.transformQuery(root, p); // apply traversals
+		metrics.record(Stage.TRANSFORM, start);
+		plans.put(key, plan);
+		return plan;
+	}
+
+	/**
+	 * @return QueryPlanCache: the cache of transformed query trees
+	 */
+	public QueryPlanCache getPlanCache() {
+		return plans;
+	}
+
+	/**
+	 * @return RelevanceFeedback: the cache of relevance models, or null if queries are not expanded
+	 */
+	public RelevanceFeedback getFeedback() {
+		return feedback;
+	}
+
+	/**
+	 * Runs a transformed galago query tree
+	 *
+	 * @param transformed: transformed query tree
+	 * @param p: this query's parameters
+	 * @return LinkedHashMap<String, Double> docs: retrieved documents mapped to their scores
+	 * @throws Exception
+	 */
+	private LinkedHashMap<String, Double> execute(Node transformed, Parameters p) throws Exception {
+		// Decides up front whether to log, since executing may modify the tree
+		String logged = SearchLog.sample() ? transformed.toString() : null;
+
+		Cancellation.check();
+		long start = System.nanoTime();
+		List<ScoredDocument> results;
+		if (shardPool == null)
+			results = retrieval.executeQuery(transformed, p).scoredDocuments; // issue the query!
+		else
+			results = executeSharded(transformed, p);
+		SearchMetrics.global().record(Stage.EXECUTE, start);
+
+		LinkedHashMap<String, Double> docs = new LinkedHashMap<String, Double>();
+		for (ScoredDocument sd : results)
+			docs.put(sd.getName(), sd.getScore());
+
+		// Logs a sample of queries and their results -- used for analysis purposes
+		if (logged != null) {
+			StringBuilder message = new StringBuilder(logged).append("\n****************");
+			for (ScoredDocument sd : results)
+				message.append('\n').append(sd.getName()).append(':').append(sd.getScore());
+			SearchLog.log(message.toString());
+		}
+		return docs;
+	}
+
+	/**
+	 * Executes a transformed query tree on every shard at once, and merges each
+	 * shard's top k into the overall top k
+	 *
+	 * @param transformed: transformed query tree, annotated with whole-collection statistics
+	 * @param p: this query's parameters, including the number of documents requested
+	 * @return List<ScoredDocument>: the overall top k, best first
+	 * @throws Exception
+	 */
+	private List<ScoredDocument> executeSharded(Node transformed, final Parameters p) throws Exception {
+		List<Future<List<ScoredDocument>>> running = new ArrayList<Future<List<ScoredDocument>>>(shards.size());
+		try {
+			for (final Retrieval shard : shards) {
+				// Each shard gets its own copy, since executing may modify the tree
+				final Node copy = transformed.clone();
+				running.add(shardPool.submit(new Callable<List<ScoredDocument>>() {
+					@Override
+					public List<ScoredDocument> call() throws Exception {
+						return shard.executeQuery(copy, p).scoredDocuments;
+					}
+				}));
+			}
+
+			// Keeps the k best documents seen, worst on top
+			int k = (int) p.get("requested", 1000L);
+			PriorityQueue<ScoredDocument> heap = new PriorityQueue<ScoredDocument>(Math.max(1, k), WORST_FIRST);
+			for (Future<List<ScoredDocument>> shard : running) {
+				for (ScoredDocument sd : shard.get()) {
+					if (k <= 0)
+						break;
+					if (heap.size() < k)
+						heap.add(sd);
+					else if (WORST_FIRST.compare(sd, heap.peek()) > 0) {
+						heap.poll();
+						heap.add(sd);
+					}
+				}
+			}
+
+			List<ScoredDocument> merged = new ArrayList<ScoredDocument>(heap);
+			Collections.sort(merged, Collections.reverseOrder(WORST_FIRST));
+			return merged;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Search cancelled");
+		} finally {
+			for (Future<List<ScoredDocument>> shard : running)
+				shard.cancel(true);
+		}
+	}
+
+	/**
+	 * @return int: number of shards queries are executed on, 1 if the index is not sharded
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * @return String: location of the index this engine was opened on
+	 */
+	public String getIndexPath() {
+		return pathIndexBase;
+	}
+
+	/**
+	 * Closes the underlying index
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		// Closing the whole index closes every shard it was built from
+		if (shardPool != null)
+			shardPool.shutdownNow();
+		retrieval.close();
+	}
+}
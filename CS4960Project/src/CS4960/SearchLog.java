@@ -0,0 +1,80 @@
+package CS4960;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sampled diagnostic output for the search path, written to the console by a
+ * background thread
+ *
+ * Printing every query tree and scored document costs more than the query itself once
+ * the engine is under load, so only one in every SAMPLE_EVERY queries is logged, and
+ * the messages are handed to a background thread through a bounded queue instead of
+ * being printed by the thread running the query. If the queue is full, messages are
+ * dropped rather than slowing down searches
+ *
+ * Some Notes: The sampling rate can be set with -Dcs4960.log.sample=<n>, logging one
+ *             in every n queries, 1 logs every query and 0 turns logging off
+ *
+ * @author Brian Dong
+ *
+ */
+public class SearchLog {
+
+	// Log one in every SAMPLE_EVERY queries
+	public static final int SAMPLE_EVERY = Integer.getInteger("cs4960.log.sample", 100);
+
+	// Messages waiting to be written
+	private static final int QUEUE = 1024;
+
+	private static final BlockingQueue<String> pending = new ArrayBlockingQueue<String>(QUEUE);
+	private static final AtomicLong queries = new AtomicLong();
+	private static final AtomicLong dropped = new AtomicLong();
+
+	static {
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true)
+						System.out.println(pending.take());
+				} catch (InterruptedException e) {
+					// Exits
+				}
+			}
+		}, "search-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private SearchLog() {
+	}
+
+	/**
+	 * Decides whether something happening once per query, such as running or re-ranking
+	 * it, is logged this time
+	 *
+	 * @return boolean: whether its messages should be logged
+	 */
+	public static boolean sample() {
+		return SAMPLE_EVERY > 0 && queries.getAndIncrement() % SAMPLE_EVERY == 0;
+	}
+
+	/**
+	 * Queues a message to be written, dropping it if too many are waiting
+	 *
+	 * @param message: the message
+	 */
+	public static void log(String message) {
+		if (!pending.offer(message))
+			dropped.incrementAndGet();
+	}
+
+	/**
+	 * @return long: number of messages dropped because the queue was full
+	 */
+	public static long getDropped() {
+		return dropped.get();
+	}
+}
@@ -0,0 +1,215 @@
+package CS4960;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms for each stage of a search, and counters for the work done
+ * along the way, shared by the whole program
+ *
+ * The metrics are registered with the platform MBean server as
+ * CS4960:type=SearchMetrics, so they can be read with jconsole or any other JMX
+ * client, and SearchServer serves them in Prometheus' text format at /metrics
+ *
+ * Some Notes: Recording is lock-free, stages are timed with System.nanoTime by the
+ *             code running them, for example
+ *
+ *             long start = System.nanoTime();
+ *             ...
+ *             SearchMetrics.global().record(Stage.EXECUTE, start);
+ *
+ * @author Brian Dong
+ *
+ */
+public class SearchMetrics implements SearchMetricsMXBean {
+
+	/**
+	 * Timed stages of a search
+	 */
+	public enum Stage {
+		// Whole search, as seen by the caller of SearchService.search
+		SEARCH,
+		// Building a query tree
+		BUILD,
+		// Running galago's traversals over a query tree
+		TRANSFORM,
+		// Running a transformed query tree against the index
+		EXECUTE,
+		// Estimating a query's relevance model for expansion, including its feedback retrieval
+		FEEDBACK,
+		// Re-ranking products when sorting by rating
+		RERANK,
+		// Building the results shown to the user
+		ENRICH,
+		// Fetching and shrinking a product image that was not cached
+		IMAGE_FETCH
+	}
+
+	/**
+	 * Counted events
+	 */
+	public enum Counter {
+		RESULT_CACHE_HITS,
+		RESULT_CACHE_MISSES,
+		PLAN_CACHE_HITS,
+		PLAN_CACHE_MISSES,
+		FEEDBACK_CACHE_HITS,
+		FEEDBACK_CACHE_MISSES,
+		// Number of re-rankings, and number of fills they tried between them
+		RERANKS,
+		BALANCE_PASSES,
+		IMAGE_CACHE_HITS,
+		IMAGE_FETCH_ERRORS,
+		SEARCH_ERRORS,
+		SEARCHES_CANCELLED,
+		REVIEWS_INGESTED
+	}
+
+	// Name the metrics are registered under with JMX
+	public static final String OBJECT_NAME = "CS4960:type=SearchMetrics";
+
+	private static final SearchMetrics GLOBAL = register(new SearchMetrics());
+
+	private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+	SearchMetrics() {
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * @return SearchMetrics: the metrics shared by the whole program
+	 */
+	public static SearchMetrics global() {
+		return GLOBAL;
+	}
+
+	private static SearchMetrics register(SearchMetrics metrics) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+		} catch (Exception e) {
+			System.out.println("Unable to register metrics with JMX: " + e);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Records the time a stage took
+	 *
+	 * @param stage: the stage
+	 * @param start: System.nanoTime when the stage started
+	 */
+	public void record(Stage stage, long start) {
+		stages[stage.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * @param stage: a stage
+	 * @return LatencyHistogram: the stage's latencies
+	 */
+	public LatencyHistogram getStage(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	/**
+	 * @param counter: the counter to increment
+	 */
+	public void increment(Counter counter) {
+		counters.incrementAndGet(counter.ordinal());
+	}
+
+	/**
+	 * @param counter: the counter to add to
+	 * @param n: amount to add
+	 */
+	public void add(Counter counter, long n) {
+		counters.addAndGet(counter.ordinal(), n);
+	}
+
+	/**
+	 * @param counter: a counter
+	 * @return long: the counter's value
+	 */
+	public long get(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (Counter c : Counter.values())
+			map.put(name(c), get(c));
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getStageCounts() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (Stage s : Stage.values())
+			map.put(name(s), getStage(s).getCount());
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getStageMeanMillis() {
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Stage s : Stage.values())
+			map.put(name(s), getStage(s).getMean() / 1e6);
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getStageP99Millis() {
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Stage s : Stage.values()) {
+			long p99 = getStage(s).getPercentile(0.99);
+			map.put(name(s), p99 == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : p99 / 1e6);
+		}
+		return map;
+	}
+
+	@Override
+	public String getPrometheusText() {
+		StringBuilder out = new StringBuilder();
+		out.append("# HELP cs4960_stage_latency_seconds Latency of each stage of a search\n");
+		out.append("# TYPE cs4960_stage_latency_seconds histogram\n");
+		for (Stage s : Stage.values()) {
+			LatencyHistogram h = getStage(s);
+			String label = "stage=\"" + name(s) + "\"";
+			long cumulative = 0;
+			for (int b = 0; b < LatencyHistogram.BOUNDS.length; b++) {
+				cumulative += h.getBucket(b);
+				out.append("cs4960_stage_latency_seconds_bucket{").append(label).append(",le=\"")
+						.append(seconds(LatencyHistogram.BOUNDS[b])).append("\"} ").append(cumulative).append('\n');
+			}
+			cumulative += h.getBucket(LatencyHistogram.BOUNDS.length);
+			out.append("cs4960_stage_latency_seconds_bucket{").append(label).append(",le=\"+Inf\"} ")
+					.append(cumulative).append('\n');
+			out.append("cs4960_stage_latency_seconds_sum{").append(label).append("} ").append(seconds(h.getSum()))
+					.append('\n');
+			out.append("cs4960_stage_latency_seconds_count{").append(label).append("} ").append(cumulative)
+					.append('\n');
+		}
+
+		for (Counter c : Counter.values()) {
+			String metric = "cs4960_" + name(c) + "_total";
+			out.append("# TYPE ").append(metric).append(" counter\n");
+			out.append(metric).append(' ').append(get(c)).append('\n');
+		}
+		return out.toString();
+	}
+
+	private static String name(Enum<?> e) {
+		return e.name().toLowerCase(Locale.ROOT);
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+}
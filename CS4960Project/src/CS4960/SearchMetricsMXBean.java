@@ -0,0 +1,37 @@
+package CS4960;
+
+import java.util.Map;
+
+/**
+ * JMX view of the search engine's metrics, see SearchMetrics
+ *
+ * @author Brian Dong
+ *
+ */
+public interface SearchMetricsMXBean {
+
+	/**
+	 * @return Map<String, Long>: every counter, by name
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * @return Map<String, Long>: number of timings recorded for each stage
+	 */
+	Map<String, Long> getStageCounts();
+
+	/**
+	 * @return Map<String, Double>: average latency of each stage, in milliseconds
+	 */
+	Map<String, Double> getStageMeanMillis();
+
+	/**
+	 * @return Map<String, Double>: estimated 99th percentile latency of each stage, in milliseconds
+	 */
+	Map<String, Double> getStageP99Millis();
+
+	/**
+	 * @return String: every metric in Prometheus' text format
+	 */
+	String getPrometheusText();
+}
@@ -0,0 +1,466 @@
+package CS4960;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP/JSON endpoint over the search service, used to drive the search
+ * engine without the GUI
+ *
+ * Requests are accepted on the server's dispatch thread and handed to a bounded
+ * pool of worker threads with a bounded queue; once every worker is busy and the
+ * queue is full, further requests are turned away with a 503 straight from the
+ * dispatch thread instead of piling up behind the index
+ *
+ * Endpoints: GET /search?q=<query>&sort=<relevance|rating>, optionally filtered with
+ *            brand=<a,b>, category=<a,b>, minPrice=, maxPrice= and minRating=, in
+ *            which case facet counts are returned too, as they are with facets=true.
+ *            Unfiltered results carry a "next" cursor while there are more, and
+ *            GET /search?cursor=<next> returns the page it points to
+ *            GET /stream?q=<query>&sort=<relevance|rating>&limit=<n>, up to n results
+ *            as newline delimited JSON, each line sent as soon as it is ready
+ *            GET /suggest?q=<prefix>, type-ahead suggestions
+ *            GET /metrics, every SearchMetrics metric in Prometheus' text format,
+ *            answered straight from the dispatch thread so it works even when busy,
+ *            as are suggestions, which are answered from memory
+ *
+ * @author Brian Dong
+ *
+ */
+public class SearchServer {
+
+	// Default port and pool sizes
+	public static final int DEFAULT_PORT = 8080;
+	private static final int DEFAULT_QUEUE = 256;
+
+	// Number of suggestions returned
+	private static final int SUGGESTIONS = 8;
+
+	// Query parameters that filter a search
+	private static final String[] FACET_PARAMS = { "brand", "category", "minPrice", "maxPrice", "minRating" };
+
+	private final SearchService service;
+	private final HttpServer server;
+	private final ThreadPoolExecutor workers;
+
+	// Limits the number of requests running or waiting for a worker
+	private final Semaphore admitted;
+
+	/**
+	 * Creates a server bound to localhost, start must be called to begin serving
+	 *
+	 * @param service: the search service to serve
+	 * @param port: port to listen on
+	 * @param threads: number of worker threads
+	 * @param queue: number of requests allowed to wait for a worker
+	 * @throws IOException
+	 */
+	public SearchServer(SearchService service, int port, int threads, int queue) throws IOException {
+		this.service = service;
+		workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue));
+		admitted = new Semaphore(threads + queue);
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/search", new Admission(new SearchHandler()));
+		server.createContext("/stream", new Admission(new StreamHandler()));
+		server.createContext("/suggest", new SuggestHandler());
+		server.createContext("/metrics", new MetricsHandler());
+	}
+
+	/**
+	 * Starts serving requests
+	 */
+	public void start() {
+		server.start();
+		System.out.println("Search server listening on " + server.getAddress());
+	}
+
+	/**
+	 * Stops serving requests, waiting up to delay seconds for running ones to finish
+	 *
+	 * @param delay: seconds to wait
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		workers.shutdown();
+	}
+
+	/**
+	 * @return int: the port the server is bound to
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Runs a handler on the worker pool if there is room for it, otherwise responds
+	 * with a 503 immediately
+	 */
+	private class Admission implements HttpHandler {
+		private final HttpHandler handler;
+
+		Admission(HttpHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			if (!admitted.tryAcquire()) {
+				respond(exchange, 503, error("server busy"));
+				return;
+			}
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							handler.handle(exchange);
+						} catch (Exception e) {
+							e.printStackTrace();
+							// Answers the request unless the handler already started to
+							if (exchange.getResponseCode() < 0) {
+								try {
+									respond(exchange, 500, error(String.valueOf(e.getMessage())));
+								} catch (IOException ignored) {
+									// The client has gone
+								}
+							}
+						} finally {
+							exchange.close();
+							admitted.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				admitted.release();
+				respond(exchange, 503, error("server busy"));
+			}
+		}
+	}
+
+	/**
+	 * Handles /search requests
+	 */
+	private class SearchHandler implements HttpHandler {
+		@Override
+		@SuppressWarnings("unchecked")
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				HashMap<String, String> params;
+				try {
+					params = parseQuery(exchange.getRequestURI().getRawQuery());
+				} catch (IllegalArgumentException e) {
+					// Thrown for malformed escapes in the query string
+					respond(exchange, 400, error("invalid query string " + e.getMessage()));
+					return;
+				}
+				if (params.containsKey("cursor")) {
+					PageCursor at;
+					try {
+						at = PageCursor.decode(params.get("cursor"));
+					} catch (IllegalArgumentException e) {
+						respond(exchange, 400, error("invalid cursor"));
+						return;
+					}
+					respond(exchange, 200, pageBody(at.getQuery(), at.getSort(), service.page(params.get("cursor"))));
+					return;
+				}
+
+				String query = params.get("q");
+				if (query == null || query.trim().isEmpty()) {
+					respond(exchange, 400, error("missing query parameter 'q'"));
+					return;
+				}
+
+				SortMode sort;
+				try {
+					sort = SortMode.parse(params.get("sort"));
+				} catch (IllegalArgumentException e) {
+					respond(exchange, 400, error("unknown sort '" + params.get("sort") + "'"));
+					return;
+				}
+
+				FacetFilter filter;
+				try {
+					filter = parseFilter(params);
+				} catch (NumberFormatException e) {
+					respond(exchange, 400, error("invalid number " + e.getMessage()));
+					return;
+				}
+
+				if (filter == null) {
+					respond(exchange, 200, pageBody(query, sort, service.firstPage(query.toLowerCase(), sort)));
+					return;
+				}
+
+				// Runs the filtered query and writes out the results with their facets
+				JSONObject body = new JSONObject();
+				FacetedResults faceted = service.search(query.toLowerCase(), sort, filter);
+				JSONObject facets = new JSONObject();
+				for (Map.Entry<String, Map<String, Integer>> e : faceted.getFacets().entrySet()) {
+					// Keeps each facet's values in order, most common first
+					JSONArray values = new JSONArray();
+					for (Map.Entry<String, Integer> v : e.getValue().entrySet()) {
+						JSONObject value = new JSONObject();
+						value.put("value", v.getKey());
+						value.put("count", v.getValue());
+						values.add(value);
+					}
+					facets.put(e.getKey(), values);
+				}
+				JSONArray array = new JSONArray();
+				for (ProductResult r : faceted.getResults())
+					array.add(r.toJSON());
+
+				body.put("query", query);
+				body.put("sort", sort.name().toLowerCase());
+				body.put("matched", faceted.getMatched());
+				body.put("facets", facets);
+				body.put("results", array);
+				respond(exchange, 200, body);
+			} catch (Exception e) {
+				e.printStackTrace();
+				respond(exchange, 500, error(String.valueOf(e.getMessage())));
+			}
+		}
+	}
+
+	/**
+	 * Builds the response body of a page of results
+	 */
+	@SuppressWarnings("unchecked")
+	private static JSONObject pageBody(String query, SortMode sort, ResultPage page) {
+		JSONArray array = new JSONArray();
+		for (ProductResult r : page.getResults())
+			array.add(r.toJSON());
+
+		JSONObject body = new JSONObject();
+		body.put("query", query);
+		body.put("sort", sort.name().toLowerCase());
+		body.put("offset", page.getOffset());
+		body.put("results", array);
+		if (page.getNext() != null)
+			body.put("next", page.getNext());
+		return body;
+	}
+
+	/**
+	 * Handles /stream requests
+	 */
+	private class StreamHandler implements HttpHandler {
+		@Override
+		@SuppressWarnings("unchecked")
+		public void handle(HttpExchange exchange) throws IOException {
+			String query;
+			SortMode sort;
+			int limit;
+			try {
+				HashMap<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+				query = params.get("q");
+				if (query == null || query.trim().isEmpty()) {
+					respond(exchange, 400, error("missing query parameter 'q'"));
+					return;
+				}
+				sort = SortMode.parse(params.get("sort"));
+				limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : SearchService.MAX_DEPTH;
+			} catch (IllegalArgumentException e) {
+				// Also thrown for malformed escapes in the query string
+				respond(exchange, 400, error("invalid parameter " + e.getMessage()));
+				return;
+			} catch (Exception e) {
+				e.printStackTrace();
+				respond(exchange, 500, error(String.valueOf(e.getMessage())));
+				return;
+			}
+
+			// Sends the results with chunked encoding, one line each, as they are ranked
+			exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+			exchange.sendResponseHeaders(200, 0);
+			final OutputStream out = exchange.getResponseBody();
+			try {
+				service.stream(query.toLowerCase(), sort, limit, new ResultListener() {
+					@Override
+					public boolean result(int rank, ProductResult result) {
+						JSONObject line = result.toJSON();
+						line.put("rank", rank);
+						try {
+							out.write((line.toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+							out.flush();
+							return true;
+						} catch (IOException e) {
+							// The client has gone, stops ranking for it
+							return false;
+						}
+					}
+				});
+			} catch (Exception e) {
+				e.printStackTrace();
+				try {
+					out.write((error(String.valueOf(e.getMessage())).toJSONString() + "\n").getBytes(StandardCharsets.UTF_8));
+				} catch (IOException ignored) {
+					// The client has gone
+				}
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads a search's facet filter from its query parameters
+	 *
+	 * @param params: decoded query parameters
+	 * @return FacetFilter: the filter, or null if the search is neither filtered nor asks for facets
+	 * @throws NumberFormatException if a price or rating is not a number
+	 */
+	static FacetFilter parseFilter(HashMap<String, String> params) {
+		boolean faceted = "true".equals(params.get("facets"));
+		for (String name : FACET_PARAMS)
+			faceted |= params.containsKey(name);
+		if (!faceted)
+			return null;
+
+		FacetFilter.Builder filter = new FacetFilter.Builder();
+		if (params.containsKey("brand")) {
+			for (String brand : params.get("brand").split(","))
+				filter.brand(brand);
+		}
+		if (params.containsKey("category")) {
+			for (String category : params.get("category").split(","))
+				filter.category(category);
+		}
+		if (params.containsKey("minPrice"))
+			filter.minPrice(Double.parseDouble(params.get("minPrice")));
+		if (params.containsKey("maxPrice"))
+			filter.maxPrice(Double.parseDouble(params.get("maxPrice")));
+		if (params.containsKey("minRating"))
+			filter.minRating(Double.parseDouble(params.get("minRating")));
+		return filter.build();
+	}
+
+	/**
+	 * Handles /suggest requests
+	 */
+	private class SuggestHandler implements HttpHandler {
+		@Override
+		@SuppressWarnings("unchecked")
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String prefix = parseQuery(exchange.getRequestURI().getRawQuery()).get("q");
+				if (prefix == null) {
+					respond(exchange, 400, error("missing query parameter 'q'"));
+					return;
+				}
+
+				JSONArray suggestions = new JSONArray();
+				suggestions.addAll(service.suggest(prefix, SUGGESTIONS));
+				JSONObject body = new JSONObject();
+				body.put("prefix", prefix);
+				body.put("suggestions", suggestions);
+				respond(exchange, 200, body);
+			} catch (IllegalArgumentException e) {
+				// Thrown for malformed escapes in the query string
+				respond(exchange, 400, error("invalid query string " + e.getMessage()));
+			} catch (Exception e) {
+				e.printStackTrace();
+				respond(exchange, 500, error(String.valueOf(e.getMessage())));
+			}
+		}
+	}
+
+	/**
+	 * Handles /metrics requests
+	 */
+	private static class MetricsHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			byte[] bytes = SearchMetrics.global().getPrometheusText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Splits a raw URL query string into decoded key/value pairs
+	 *
+	 * @param raw: the raw query string, may be null
+	 * @return HashMap<String, String>: decoded parameters
+	 * @throws UnsupportedEncodingException
+	 */
+	static HashMap<String, String> parseQuery(String raw) throws UnsupportedEncodingException {
+		HashMap<String, String> params = new HashMap<String, String>();
+		if (raw == null)
+			return params;
+		for (String pair : raw.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0)
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			else
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject error(String message) {
+		JSONObject obj = new JSONObject();
+		obj.put("error", message);
+		return obj;
+	}
+
+	/**
+	 * Writes a JSON response and closes the exchange
+	 */
+	static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+		byte[] bytes = body.toJSONString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**
+	 * Starts a headless search server
+	 *
+	 * Usage: SearchServer [port] [threads]
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		SearchService service = SearchService.open();
+		// Picks up reviews appended to the review file while serving
+		ReviewTailer.follow(service);
+		SearchServer server = new SearchServer(service, port, threads, DEFAULT_QUEUE);
+		server.start();
+	}
+}
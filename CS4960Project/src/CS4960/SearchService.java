@@ -0,0 +1,561 @@
+package CS4960;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import CS4960.SearchMetrics.Counter;
+import CS4960.SearchMetrics.Stage;
+
+/**
+ * Headless search API over the galago index and the product catalog
+ *
+ * This is the part of the search engine that does not depend on Swing; the GUI in
+ * Search and the HTTP endpoint in SearchServer are both just clients of it. Both the
+ * engine and the catalog are only read once loaded, so a single service may be
+ * shared by any number of threads
+ *
+ * Finished results are kept in a ResultCache, so repeated queries are answered from
+ * memory; the cache must be invalidated whenever the index or product data changes
+ *
+ * Searches may be filtered by brand, category, price and rating, see FacetFilter and
+ * FacetIndex. Filtered searches are not cached, since their facet counts are worked
+ * out from the matched products each time
+ *
+ * Results past the first page are reached with a PageCursor. The first page costs no
+ * more than a plain search; the search's deep candidate list, up to MAX_DEPTH
+ * products, is only retrieved when a later page is first asked for, on the thread
+ * asking, and every later page is cut from that list rather than running the query
+ * again, see RankedCandidates. The candidate lists of recent searches are kept until
+ * the cache is invalidated
+ *
+ * A search running on a background thread can be cancelled by interrupting it, see
+ * Cancellation; it then stops at the next stage and throws a CancellationException
+ *
+ * @author Brian Dong
+ *
+ */
+public class SearchService {
+
+	// Number of results returned by a search
+	public static final int RESULTS = 10;
+
+	// Number of products by relevance considered when sorting by rating
+	public static final int RATING_CANDIDATES = 100;
+
+	// Largest average relevance error accepted when sorting by rating
+	public static final double ERROR_TARGET = 0.05;
+
+	// Number of matching products a filtered search retrieves and counts facets over
+	public static final int FACET_CANDIDATES = 100;
+
+	// Most allowed products passed to galago as a working set, larger filters are
+	// applied to the retrieved products instead
+	private static final int WORKING_SET_LIMIT = 10000;
+
+	// Most products retrieved when a filter is applied after retrieval
+	private static final int MAX_FILTER_CANDIDATES = 5000;
+
+	// Deepest rank reachable by paging
+	public static final int MAX_DEPTH = 1000;
+
+	// Number of searches whose deep candidate lists are kept for paging
+	private static final int PAGED_SEARCHES = 1000;
+
+	// Galago index used for retreival
+	private final SearchEngine engine;
+
+	// Loaded product data used to enrich results
+	private final ProductCatalog catalog;
+
+	// Orders products when sorting by rating
+	private volatile ReRanker reRanker = new BalancedReRanker(RESULTS, ERROR_TARGET);
+
+	// Results of recent searches
+	private final ResultCache cache = new ResultCache(ResultCache.DEFAULT_ENTRIES);
+
+	// Type-ahead suggestions over titles and successful queries
+	private final Autocomplete autocomplete;
+
+	// Deep candidate lists of recent searches, retrieved or being retrieved, least recently used first
+	private final LinkedHashMap<String, FutureTask<RankedCandidates>> deep = new LinkedHashMap<String, FutureTask<RankedCandidates>>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FutureTask<RankedCandidates>> eldest) {
+			return size() > PAGED_SEARCHES;
+		}
+	};
+
+	/**
+	 * @param engine: opened galago index
+	 * @param catalog: loaded product data
+	 */
+	public SearchService(SearchEngine engine, ProductCatalog catalog) {
+		this.engine = engine;
+		this.catalog = catalog;
+		this.autocomplete = new Autocomplete(catalog);
+	}
+
+	/**
+	 * Opens the default index and loads the default data files
+	 * @return SearchService: ready to use search service
+	 * @throws Exception
+	 */
+	public static SearchService open() throws Exception {
+		ProductCatalog catalog = new ProductCatalog();
+		catalog.loadData();
+		return new SearchService(new SearchEngine(), catalog);
+	}
+
+	/**
+	 * Runs a search sorted as specified
+	 *
+	 * @param query: the search query provided by the user
+	 * @param sort: how the results should be ordered
+	 * @return List<ProductResult>: up to 10 results
+	 * @throws CancellationException if the thread running the search is interrupted
+	 * @throws Exception
+	 */
+	public List<ProductResult> search(String query, SortMode sort) throws Exception {
+		SearchMetrics metrics = SearchMetrics.global();
+		long start = System.nanoTime();
+
+		// Serves the search from the cache if it was run recently
+		String normalized = ResultCache.normalize(query);
+		String key = ResultCache.key(normalized, sort, RESULTS);
+		List<ProductResult> results = cache.get(key);
+		if (results != null) {
+			metrics.increment(Counter.RESULT_CACHE_HITS);
+			if (!results.isEmpty())
+				autocomplete.recordQuery(normalized);
+			metrics.record(Stage.SEARCH, start);
+			return results;
+		}
+		metrics.increment(Counter.RESULT_CACHE_MISSES);
+
+		try {
+			Cancellation.check();
+			long generation = cache.generation();
+			if (sort == SortMode.RATING)
+				results = retrieveByRating(normalized);
+			else
+				results = retrieveByRelevance(normalized);
+			results = cache.put(key, results, generation);
+		} catch (CancellationException e) {
+			metrics.increment(Counter.SEARCHES_CANCELLED);
+			throw e;
+		} catch (Exception e) {
+			metrics.increment(Counter.SEARCH_ERRORS);
+			throw e;
+		}
+		// Learns queries that found something, so they can be suggested later
+		if (!results.isEmpty())
+			autocomplete.recordQuery(normalized);
+		metrics.record(Stage.SEARCH, start);
+		return results;
+	}
+
+	/**
+	 * Runs a search limited to the products a filter allows, and counts the facets of
+	 * the best FACET_CANDIDATES products that match
+	 *
+	 * Note: the allowed products are worked out from the FacetIndex first. If there are
+	 * few enough of them they are passed to galago as a working set, so only they are
+	 * scored; otherwise the filter allows most products, and enough are retrieved that
+	 * FACET_CANDIDATES of them are expected to pass, up to MAX_FILTER_CANDIDATES
+	 *
+	 * @param query: the search query provided by the user
+	 * @param sort: how the results should be ordered
+	 * @param filter: the products that may be returned
+	 * @return FacetedResults: up to 10 results and the facet counts of the matched products
+	 * @throws CancellationException if the thread running the search is interrupted
+	 * @throws Exception
+	 */
+	public FacetedResults search(String query, SortMode sort, FacetFilter filter) throws Exception {
+		SearchMetrics metrics = SearchMetrics.global();
+		long start = System.nanoTime();
+		String normalized = ResultCache.normalize(query);
+		FacetIndex facets = catalog.getFacets();
+		KeywordIndex ratings = catalog.getKeywords();
+		ProductStore store = catalog.getStore();
+		try {
+			BitSet allowed = facets.allowed(filter, ratings);
+			List<String> working = null;
+			int requested = FACET_CANDIDATES;
+			if (allowed != null) {
+				int count = allowed.cardinality();
+				if (count == 0) {
+					metrics.record(Stage.SEARCH, start);
+					return new FacetedResults(Collections.<ProductResult>emptyList(), facets.count(new int[0], ratings), 0);
+				}
+				if (count <= WORKING_SET_LIMIT && engine.supportsWorkingSet()) {
+					working = new ArrayList<String>(count);
+					for (int id = allowed.nextSetBit(0); id >= 0; id = allowed.nextSetBit(id + 1))
+						working.add(store.getAsin(id));
+				} else
+					requested = (int) Math.min(MAX_FILTER_CANDIDATES,
+							Math.max(FACET_CANDIDATES, (long) FACET_CANDIDATES * facets.size() / count));
+			}
+
+			Cancellation.check();
+			boolean prior = sort == SortMode.RATING && engine.hasRatingPrior();
+			LinkedHashMap<String, Double> retrieved = prior ? engine.runRatingQuery(normalized, requested, working)
+					: engine.runQuery(normalized, requested, working);
+
+			// Keeps the best products the filter allows
+			List<Candidate> candidates = new ArrayList<Candidate>(FACET_CANDIDATES);
+			int[] ids = new int[FACET_CANDIDATES];
+			for (Map.Entry<String, Double> e : retrieved.entrySet()) {
+				int id = store.find(e.getKey());
+				if (id < 0 || (allowed != null && !allowed.get(id)))
+					continue;
+				ids[candidates.size()] = id;
+				candidates.add(new Candidate(e.getKey(), e.getValue(), ratings.getAverage(id)));
+				if (candidates.size() == FACET_CANDIDATES)
+					break;
+			}
+			Map<String, Map<String, Integer>> counts = facets.count(Arrays.copyOf(ids, candidates.size()), ratings);
+
+			List<Candidate> chosen;
+			if (sort == SortMode.RATING && !prior) {
+				Cancellation.check();
+				long rerank = System.nanoTime();
+				chosen = reRanker.rerank(candidates.subList(0, Math.min(candidates.size(), RATING_CANDIDATES)));
+				metrics.record(Stage.RERANK, rerank);
+			} else
+				chosen = candidates.subList(0, Math.min(candidates.size(), RESULTS));
+
+			long enrich = System.nanoTime();
+			List<ProductResult> results = new ArrayList<ProductResult>(chosen.size());
+			for (Candidate c : chosen)
+				results.add(enrich(c.getAsin(), c.getScore()));
+			metrics.record(Stage.ENRICH, enrich);
+			metrics.record(Stage.SEARCH, start);
+			return new FacetedResults(results, counts, candidates.size());
+		} catch (CancellationException e) {
+			metrics.increment(Counter.SEARCHES_CANCELLED);
+			throw e;
+		} catch (Exception e) {
+			metrics.increment(Counter.SEARCH_ERRORS);
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs a search and returns its first page, along with the cursor of the next
+	 *
+	 * Note: the first page is the same as search returns, and is answered as quickly,
+	 * since no deeper candidates are retrieved until the next page is asked for. So
+	 * unless the search's deep candidate list is already known, any page with results
+	 * has a next cursor, whose page may turn out empty
+	 *
+	 * @param query: the search query provided by the user
+	 * @param sort: how the results should be ordered
+	 * @return ResultPage: the first RESULTS results
+	 * @throws CancellationException if the thread running the search is interrupted
+	 * @throws Exception
+	 */
+	public ResultPage firstPage(String query, SortMode sort) throws Exception {
+		List<ProductResult> results = search(query, sort);
+		String normalized = ResultCache.normalize(query);
+		// Only remembers the first page, for the deep candidate list to carry on from
+		FutureTask<RankedCandidates> deeper = candidates(normalized, sort, results);
+		boolean more = !results.isEmpty();
+		if (more && deeper.isDone() && !deeper.isCancelled()) {
+			try {
+				more = deeper.get().hasMore(results.size());
+			} catch (ExecutionException e) {
+				// Failed lists are retried by the next page
+			}
+		}
+		String next = more ? new PageCursor(normalized, sort, results.size()).encode() : null;
+		return new ResultPage(results, 0, next);
+	}
+
+	/**
+	 * Returns the page of results a cursor points to
+	 *
+	 * @param cursor: a cursor from a previous page
+	 * @return ResultPage: up to RESULTS results
+	 * @throws IllegalArgumentException if cursor is not a cursor
+	 * @throws CancellationException if the thread running the search is interrupted
+	 * @throws Exception
+	 */
+	public ResultPage page(String cursor) throws Exception {
+		PageCursor at = PageCursor.decode(cursor);
+		int offset = Math.min(at.getOffset(), MAX_DEPTH);
+		if (offset == 0)
+			return firstPage(at.getQuery(), at.getSort());
+
+		RankedCandidates ranked = await(candidates(at.getQuery(), at.getSort(), null));
+		long start = System.nanoTime();
+		List<ProductResult> results = new ArrayList<ProductResult>(RESULTS);
+		for (Candidate c : ranked.page(offset, Math.min(RESULTS, MAX_DEPTH - offset)))
+			results.add(enrich(c.getAsin(), c.getScore()));
+		SearchMetrics.global().record(Stage.ENRICH, start);
+
+		int nextOffset = offset + results.size();
+		String next = !results.isEmpty() && nextOffset < MAX_DEPTH && ranked.hasMore(nextOffset)
+				? new PageCursor(at.getQuery(), at.getSort(), nextOffset).encode()
+				: null;
+		return new ResultPage(results, offset, next);
+	}
+
+	/**
+	 * Streams a search's results to a listener, page by page, so the first results can
+	 * be shown before deeper ones are ranked
+	 *
+	 * @param query: the search query provided by the user
+	 * @param sort: how the results should be ordered
+	 * @param limit: most results to stream, at most MAX_DEPTH are available
+	 * @param listener: receives each result, and may stop the stream
+	 * @throws CancellationException if the thread running the search is interrupted
+	 * @throws Exception
+	 */
+	public void stream(String query, SortMode sort, int limit, ResultListener listener) throws Exception {
+		int rank = 0;
+		ResultPage page = firstPage(query, sort);
+		while (true) {
+			for (ProductResult r : page.getResults()) {
+				if (rank >= limit || !listener.result(rank, r))
+					return;
+				rank++;
+			}
+			if (page.getNext() == null || rank >= limit)
+				return;
+			page = page(page.getNext());
+		}
+	}
+
+	/**
+	 * Returns the task retrieving a search's deep candidate list, creating it if the
+	 * search has none
+	 *
+	 * @param shown: the search's first page, or null to look it up when the task runs
+	 */
+	private FutureTask<RankedCandidates> candidates(final String query, final SortMode sort,
+			final List<ProductResult> shown) {
+		String key = ResultCache.key(query, sort, MAX_DEPTH);
+		synchronized (deep) {
+			FutureTask<RankedCandidates> task = deep.get(key);
+			if (task == null) {
+				task = new FutureTask<RankedCandidates>(new Callable<RankedCandidates>() {
+					@Override
+					public RankedCandidates call() throws Exception {
+						return retrieveDeep(query, sort, shown != null ? shown : search(query, sort));
+					}
+				});
+				deep.put(key, task);
+			}
+			return task;
+		}
+	}
+
+	/**
+	 * Waits for a deep candidate list, retrieving it on this thread if nobody has started to
+	 */
+	private RankedCandidates await(FutureTask<RankedCandidates> task) throws Exception {
+		// Does nothing if the task has already run or is running
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Search cancelled");
+		} catch (ExecutionException e) {
+			// Lets the next page retry rather than failing forever
+			synchronized (deep) {
+				deep.values().remove(task);
+			}
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Retrieves a search's MAX_DEPTH best candidates, ranked the same way as search and
+	 * carrying on from its first page
+	 */
+	private RankedCandidates retrieveDeep(String query, SortMode sort, List<ProductResult> shown) throws Exception {
+		boolean prior = sort == SortMode.RATING && engine.hasRatingPrior();
+		LinkedHashMap<String, Double> retrieved = prior ? engine.runRatingQuery(query, MAX_DEPTH)
+				: engine.runQuery(query, MAX_DEPTH);
+		List<Candidate> candidates = new ArrayList<Candidate>(retrieved.size());
+		for (Map.Entry<String, Double> e : retrieved.entrySet()) {
+			if (catalog.contains(e.getKey()))
+				candidates.add(new Candidate(e.getKey(), e.getValue(), catalog.getAverage(e.getKey())));
+		}
+		List<Candidate> first = new ArrayList<Candidate>(shown.size());
+		for (ProductResult r : shown)
+			first.add(new Candidate(r.getAsin(), r.getScore(), r.getRating()));
+		ReRanker pages = sort == SortMode.RATING && !prior ? reRanker : null;
+		return new RankedCandidates(first, candidates, pages, RATING_CANDIDATES);
+	}
+
+	/**
+	 * Suggests completions of a partly typed query
+	 *
+	 * @param prefix: the text typed so far
+	 * @param k: most suggestions to return
+	 * @return List<String>: the best product titles and past queries starting with prefix
+	 */
+	public List<String> suggest(String prefix, int k) {
+		return autocomplete.suggest(prefix, k);
+	}
+
+	/**
+	 * Takes in a search query and returns up to 10 results from that query from
+	 * Galago sorted by relevance
+	 *
+	 * @param query, the search query provided by the user
+	 * @return List<ProductResult> returnList, List with 10 results derived from the query utilizing
+	 * 										   Galago retrieval
+	 * @throws Exception
+	 */
+	public List<ProductResult> relevanceSearch(String query) throws Exception {
+		return search(query, SortMode.RELEVANCE);
+	}
+
+	/**
+	 * Runs a relevance search, bypassing the cache
+	 */
+	private List<ProductResult> retrieveByRelevance(String query) throws Exception {
+		// Utilizes galago retrieval to get a list of products sorted by relevance
+		LinkedHashMap<String, Double> top10 = engine.runQuery(query, RESULTS);
+
+		// Populates the return list with retrieved products, sorted by relevance
+		long start = System.nanoTime();
+		List<ProductResult> returnList = new ArrayList<ProductResult>();
+		for (String s : top10.keySet()) {
+			if (catalog.contains(s))
+				returnList.add(enrich(s, top10.get(s)));
+		}
+		SearchMetrics.global().record(Stage.ENRICH, start);
+		return returnList;
+	}
+
+	/**
+	 * Takes in a search query and returns up to 10 results from that query from
+	 * Galago sorted by ranking Utilizes a balancing scheme
+	 *
+	 * Note: If the index has a rating prior, galago scores relevance and rating together
+	 * and only the top 10 are retrieved. Otherwise the top 100 products by relevance are
+	 * re-ranked by the service's re-ranker, a BalancedReRanker unless another is set, see
+	 * there for how balancing works. Only the products that are shown are enriched
+	 *
+	 * @param query, the search query provided by the user
+	 * @return List<ProductResult> returnList, List with 10 results derived from the query utilizing
+	 * 										   Galago retrieval
+	 * @throws Exception
+	 */
+	public List<ProductResult> rankingSearch(String query) throws Exception {
+		return search(query, SortMode.RATING);
+	}
+
+	/**
+	 * Runs a rating search, bypassing the cache
+	 */
+	private List<ProductResult> retrieveByRating(String query) throws Exception {
+		// Lets galago weigh in ratings if it can
+		if (engine.hasRatingPrior()) {
+			LinkedHashMap<String, Double> top10 = engine.runRatingQuery(query, RESULTS);
+			long start = System.nanoTime();
+			List<ProductResult> returnList = new ArrayList<ProductResult>();
+			for (Map.Entry<String, Double> e : top10.entrySet()) {
+				if (catalog.contains(e.getKey()))
+					returnList.add(enrich(e.getKey(), e.getValue()));
+			}
+			SearchMetrics.global().record(Stage.ENRICH, start);
+			return returnList;
+		}
+
+		// Retrieves the top 100 relevant items for a query
+		LinkedHashMap<String, Double> top100 = engine.runQuery(query, RATING_CANDIDATES);
+
+		// Pairs each product with its average rating, in relevance order
+		List<Candidate> candidates = new ArrayList<Candidate>(top100.size());
+		for (Map.Entry<String, Double> e : top100.entrySet()) {
+			if (catalog.contains(e.getKey()))
+				candidates.add(new Candidate(e.getKey(), e.getValue(), catalog.getAverage(e.getKey())));
+		}
+
+		Cancellation.check();
+		long start = System.nanoTime();
+		List<Candidate> chosen = reRanker.rerank(candidates);
+		SearchMetrics.global().record(Stage.RERANK, start);
+
+		// Populates the return list with the re-ranked products
+		start = System.nanoTime();
+		List<ProductResult> returnList = new ArrayList<ProductResult>();
+		for (Candidate c : chosen)
+			returnList.add(enrich(c.getAsin(), c.getScore()));
+		SearchMetrics.global().record(Stage.ENRICH, start);
+		return returnList;
+	}
+
+	/**
+	 * Replaces the re-ranker used for rating searches
+	 *
+	 * @param reRanker: the new re-ranker
+	 */
+	public void setReRanker(ReRanker reRanker) {
+		this.reRanker = reRanker;
+		invalidateCache();
+	}
+
+	/**
+	 * Drops every cached result and candidate list, must be called whenever the index
+	 * or product data is reloaded or changed
+	 */
+	public void invalidateCache() {
+		cache.invalidate();
+		synchronized (deep) {
+			deep.clear();
+		}
+	}
+
+	/**
+	 * @return ResultCache: the cache of recent search results
+	 */
+	public ResultCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Builds the result shown to the user for a retrieved product
+	 *
+	 * @param asin: the retrieved product
+	 * @param score: the product's relevance score
+	 * @return ProductResult: the product with its name, image, rating and keywords
+	 */
+	private ProductResult enrich(String asin, double score) {
+		Cancellation.check();
+		return new ProductResult(asin, score, catalog.getAverage(asin), catalog.getTitle(asin),
+				catalog.getImage(asin), catalog.extractKeywords(asin));
+	}
+
+	/**
+	 * @return ProductCatalog: the product data backing this service
+	 */
+	public ProductCatalog getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * @return SearchEngine: the galago index backing this service
+	 */
+	public SearchEngine getEngine() {
+		return engine;
+	}
+}
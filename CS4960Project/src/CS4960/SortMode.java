@@ -0,0 +1,26 @@
+package CS4960;
+
+/**
+ * How the results of a search should be ordered
+ *
+ * @author Brian Dong
+ *
+ */
+public enum SortMode {
+	// Sorted purely by galago relevance score
+	RELEVANCE,
+	// Sorted by average rating, balanced against relevance
+	RATING;
+
+	/**
+	 * Parses a sort mode from its name, ignoring case
+	 *
+	 * @param name: "relevance" or "rating"
+	 * @return SortMode: the matching mode, RELEVANCE if name is null
+	 */
+	public static SortMode parse(String name) {
+		if (name == null)
+			return RELEVANCE;
+		return valueOf(name.trim().toUpperCase());
+	}
+}
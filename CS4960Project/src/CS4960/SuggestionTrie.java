@@ -0,0 +1,222 @@
+package CS4960;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable prefix trie of weighted suggestions, answering "the best suggestions
+ * starting with this prefix" without looking past the prefix's node
+ *
+ * Every node stores the ids of the TOP highest weighted suggestions below it, worked
+ * out once when the trie is built, so a lookup is a walk down the prefix followed by
+ * reading off the node's list, however many suggestions share the prefix. Nodes are
+ * packed into flat arrays in breadth first order, with each node's children stored
+ * next to each other sorted by character, so a step down the trie is a binary search
+ *
+ * @author Brian Dong
+ *
+ */
+public class SuggestionTrie {
+
+	// Most suggestions stored per node, and so returned per lookup
+	public static final int TOP = 10;
+
+	// Suggestions, by id
+	private final String[] texts;
+	private final double[] weights;
+
+	// Nodes, node 0 being the root
+	private final char[] label;
+	private final int[] childStart;
+	private final int[] childCount;
+	private final int[] topStart;
+	private final byte[] topCount;
+	private final int[] top;
+
+	/**
+	 * Builds a trie over a set of suggestions
+	 *
+	 * @param suggestions: normalized suggestion text mapped to its weight
+	 */
+	public SuggestionTrie(Map<String, Double> suggestions) {
+		// Numbers suggestions in sorted order, so the trie can be built in a single pass
+		texts = suggestions.keySet().toArray(new String[suggestions.size()]);
+		Arrays.sort(texts);
+		weights = new double[texts.length];
+		for (int i = 0; i < texts.length; i++)
+			weights[i] = suggestions.get(texts[i]);
+
+		// Builds the trie depth first, keeping the path to the previous suggestion
+		IntList firstChild = new IntList();
+		IntList nextSibling = new IntList();
+		IntList lastChild = new IntList();
+		IntList entry = new IntList();
+		StringBuilder labels = new StringBuilder();
+		newNode(firstChild, nextSibling, lastChild, entry, labels, -1, '\0');
+		int[] path = new int[16];
+		String previous = "";
+		for (int id = 0; id < texts.length; id++) {
+			String text = texts[id];
+			int common = 0;
+			while (common < text.length() && common < previous.length() && text.charAt(common) == previous.charAt(common))
+				common++;
+			if (text.length() + 1 > path.length)
+				path = Arrays.copyOf(path, Math.max(path.length * 2, text.length() + 1));
+			for (int depth = common; depth < text.length(); depth++)
+				path[depth + 1] = newNode(firstChild, nextSibling, lastChild, entry, labels, path[depth],
+						text.charAt(depth));
+			entry.set(path[text.length()], id);
+			previous = text;
+		}
+		int nodes = entry.size();
+
+		// Works out the best suggestions below each node, children before their parents
+		int[][] best = new int[nodes][];
+		int[] buffer = new int[TOP];
+		int totalTop = 0;
+		for (int n = nodes - 1; n >= 0; n--) {
+			int count = 0;
+			if (entry.get(n) >= 0)
+				count = offer(buffer, count, entry.get(n));
+			for (int c = firstChild.get(n); c >= 0; c = nextSibling.get(c)) {
+				for (int candidate : best[c])
+					count = offer(buffer, count, candidate);
+			}
+			best[n] = Arrays.copyOf(buffer, count);
+			totalTop += count;
+		}
+
+		// Packs the nodes into arrays, in breadth first order so siblings are adjacent
+		label = new char[nodes];
+		childStart = new int[nodes];
+		childCount = new int[nodes];
+		topStart = new int[nodes];
+		topCount = new byte[nodes];
+		top = new int[totalTop];
+		int[] order = new int[nodes];
+		int queued = 1;
+		int nextTop = 0;
+		for (int n = 0; n < nodes; n++) {
+			int node = order[n];
+			childStart[n] = queued;
+			for (int c = firstChild.get(node); c >= 0; c = nextSibling.get(c)) {
+				label[queued] = labels.charAt(c);
+				order[queued++] = c;
+			}
+			childCount[n] = queued - childStart[n];
+			topStart[n] = nextTop;
+			topCount[n] = (byte) best[node].length;
+			System.arraycopy(best[node], 0, top, nextTop, best[node].length);
+			nextTop += best[node].length;
+		}
+	}
+
+	private static int newNode(IntList firstChild, IntList nextSibling, IntList lastChild,
+			IntList entry, StringBuilder labels, int of, char c) {
+		int node = entry.size();
+		firstChild.add(-1);
+		nextSibling.add(-1);
+		lastChild.add(-1);
+		entry.add(-1);
+		labels.append(c);
+		if (of >= 0) {
+			// Children are created in sorted order, so each is appended after its siblings
+			if (lastChild.get(of) < 0)
+				firstChild.set(of, node);
+			else
+				nextSibling.set(lastChild.get(of), node);
+			lastChild.set(of, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Inserts a suggestion into a list of the best suggestions so far, best first
+	 *
+	 * @return int: the new length of the list
+	 */
+	private int offer(int[] list, int count, int id) {
+		if (count == TOP && !better(id, list[TOP - 1]))
+			return count;
+		int i = Math.min(count, TOP - 1);
+		while (i > 0 && better(id, list[i - 1])) {
+			list[i] = list[i - 1];
+			i--;
+		}
+		list[i] = id;
+		return Math.min(count + 1, TOP);
+	}
+
+	/**
+	 * @return boolean: whether suggestion a ranks before suggestion b
+	 */
+	private boolean better(int a, int b) {
+		if (weights[a] != weights[b])
+			return weights[a] > weights[b];
+		return a < b;
+	}
+
+	/**
+	 * Growable list of ints
+	 */
+	private static class IntList {
+		private int[] values = new int[1024];
+		private int size;
+
+		void add(int v) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = v;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		void set(int i, int v) {
+			values[i] = v;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * @param prefix: normalized prefix
+	 * @param k: most suggestions to return, at most TOP
+	 * @return List<String>: the highest weighted suggestions starting with prefix, best first
+	 */
+	public List<String> suggest(String prefix, int k) {
+		int node = 0;
+		for (int i = 0; i < prefix.length() && node >= 0; i++)
+			node = child(node, prefix.charAt(i));
+		if (node < 0)
+			return Collections.emptyList();
+
+		int n = Math.min(k, topCount[node]);
+		List<String> suggestions = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++)
+			suggestions.add(texts[top[topStart[node] + i]]);
+		return suggestions;
+	}
+
+	/**
+	 * @return int: the node's child labelled c, or -1 if it has none
+	 */
+	private int child(int node, char c) {
+		int from = childStart[node];
+		int i = Arrays.binarySearch(label, from, from + childCount[node], c);
+		return i < 0 ? -1 : i;
+	}
+
+	/**
+	 * @return int: number of suggestions in the trie
+	 */
+	public int size() {
+		return texts.length;
+	}
+}
@@ -0,0 +1,371 @@
+package CS4960;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.lemurproject.galago.core.tools.App;
+
+/**
+ * Generator of synthetic Amazon-style catalogs of any size, along with a matching
+ * galago index and query mix, for testing the search engine at scale without the
+ * real data files
+ *
+ * The generated files have the same format as the Amazon dataset: a review file and
+ * a metadata file of one JSON object per line, with the fields the real files have,
+ * including the long ones the catalog never reads. A TREC text corpus of each
+ * product's title and reviews is written alongside and indexed with galago
+ *
+ * Some Notes: Words are drawn from a Zipf distribution over a vocabulary of real
+ *             instrument words followed by made up ones, so a few words are very
+ *             common and most are rare, as in real text. Products' numbers of reviews
+ *             are Zipf distributed too, so a few products have most of the reviews
+ *
+ *             Ratings lean towards five stars as Amazon's do, with each product
+ *             leaning further up or down so that averages spread out
+ *
+ *             The same seed and sizes always generate the same catalog
+ *
+ * Usage: SyntheticCatalog <outputDir> [products] [reviewsPerProduct] [seed]
+ *
+ * @author Brian Dong
+ *
+ */
+public class SyntheticCatalog {
+
+	// Files written to the output directory
+	public static final String REVIEW_FILE = "reviews.json";
+	public static final String META_FILE = "meta.json";
+	public static final String CORPUS_FILE = "corpus.trectext";
+	public static final String CONFIG_FILE = "rm_model.json";
+	public static final String INDEX_DIR = "index";
+	public static final String QUERY_FILE = "queries.tsv";
+
+	// Defaults, roughly ten times the Musical Instruments five-core set
+	public static final int DEFAULT_PRODUCTS = 90000;
+	public static final double DEFAULT_REVIEWS_PER_PRODUCT = 10;
+	public static final long DEFAULT_SEED = 4960;
+
+	// Number of queries written to the query file
+	private static final int QUERIES = 10000;
+
+	// Size of the vocabulary and skew of word, product and brand popularity
+	private static final int VOCABULARY = 20000;
+	private static final double WORD_SKEW = 1.05;
+	private static final double PRODUCT_SKEW = 0.7;
+	private static final double BRAND_SKEW = 1.1;
+
+	// Chance of each star rating across all reviews, one to five stars
+	private static final double[] STAR_SHARE = { 0.07, 0.05, 0.09, 0.20, 0.59 };
+
+	// Real words the vocabulary starts with, the most common words
+	private static final String[] WORDS = { "guitar", "strings", "cable", "pedal", "microphone", "stand", "amp",
+			"tuner", "capo", "pick", "acoustic", "electric", "bass", "case", "strap", "drum", "keyboard", "stick",
+			"cymbal", "snare", "headphone", "mixer", "speaker", "monitor", "interface", "usb", "midi", "controller",
+			"piano", "synth", "ukulele", "violin", "bow", "rosin", "reverb", "delay", "distortion", "chorus", "preamp",
+			"studio", "condenser", "dynamic", "boom", "jack", "nylon", "steel", "leather", "gig", "bag", "amplifier" };
+
+	// Review summaries, one list per star rating
+	private static final String[][] SUMMARIES = { { "Broke after a week", "Do not buy", "Terrible", "Junk" },
+			{ "Disappointed", "Not worth it", "Cheaply made", "Meh" },
+			{ "It's okay", "Does the job", "Average", "Mixed feelings" },
+			{ "Works well", "Good value", "Solid purchase", "Pretty good" },
+			{ "Love it", "Great sound", "Excellent quality", "Five stars" } };
+
+	private static final String[] CATEGORIES = { "Guitars", "Bass Guitars", "Amplifiers & Effects",
+			"Drums & Percussion", "Keyboards & MIDI", "Live Sound & Stage", "Studio Recording Equipment",
+			"Microphones & Accessories", "Instrument Accessories", "Band & Orchestra", "Ukuleles, Mandolins & Banjos" };
+
+	private final long seed;
+	private final int products;
+	private final double reviewsPerProduct;
+
+	// Vocabulary, most common first
+	private final String[] vocabulary;
+	private final String[] brands;
+
+	/**
+	 * @param seed: seed everything is generated from
+	 * @param products: number of products
+	 * @param reviewsPerProduct: average number of reviews per product, at least one
+	 */
+	public SyntheticCatalog(long seed, int products, double reviewsPerProduct) {
+		this.seed = seed;
+		this.products = products;
+		this.reviewsPerProduct = Math.max(1, reviewsPerProduct);
+
+		Random random = new Random(seed);
+		vocabulary = new String[VOCABULARY];
+		for (int i = 0; i < VOCABULARY; i++)
+			vocabulary[i] = i < WORDS.length ? WORDS[i] : madeUpWord(random, i);
+		brands = new String[Math.max(1, products / 50)];
+		for (int i = 0; i < brands.length; i++) {
+			String name = madeUpWord(random, i);
+			brands[i] = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		}
+	}
+
+	/**
+	 * @return String: a pronounceable made up word, distinct for every n
+	 */
+	private static String madeUpWord(Random random, int n) {
+		final String consonants = "bcdfgklmnprstvz";
+		final String vowels = "aeiou";
+		StringBuilder word = new StringBuilder();
+		int syllables = 2 + random.nextInt(2);
+		for (int s = 0; s < syllables; s++)
+			word.append(consonants.charAt(random.nextInt(consonants.length())))
+					.append(vowels.charAt(random.nextInt(vowels.length())));
+		// Ends with n in base 26 so no two words are the same
+		do {
+			word.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return word.toString();
+	}
+
+	/**
+	 * Draws ranks from a Zipf distribution, rank 0 being the most likely
+	 */
+	static class Zipf {
+		private final double[] cumulative;
+
+		/**
+		 * @param n: number of ranks
+		 * @param skew: exponent, larger is more skewed
+		 */
+		Zipf(int n, double skew) {
+			cumulative = new double[n];
+			double total = 0;
+			for (int r = 0; r < n; r++) {
+				total += 1 / Math.pow(r + 1, skew);
+				cumulative[r] = total;
+			}
+			for (int r = 0; r < n; r++)
+				cumulative[r] /= total;
+		}
+
+		int next(Random random) {
+			int r = Arrays.binarySearch(cumulative, random.nextDouble());
+			return Math.min(cumulative.length - 1, r < 0 ? -r - 1 : r);
+		}
+	}
+
+	/**
+	 * @param i: a product number
+	 * @return String: the product's asin
+	 */
+	public static String asin(int i) {
+		return String.format("S%09d", i);
+	}
+
+	/**
+	 * Writes the review, metadata, corpus, config and query files to a directory
+	 *
+	 * @param dir: the output directory, created if needed
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void write(File dir) throws IOException {
+		dir.mkdirs();
+		Random random = new Random(seed + 1);
+		Zipf words = new Zipf(vocabulary.length, WORD_SKEW);
+		Zipf brandPopularity = new Zipf(brands.length, BRAND_SKEW);
+
+		// Deals out reviews by product popularity, each product getting at least one
+		int[] reviewCounts = new int[products];
+		Arrays.fill(reviewCounts, 1);
+		Zipf popularity = new Zipf(products, PRODUCT_SKEW);
+		long extra = Math.round(products * (reviewsPerProduct - 1));
+		for (long r = 0; r < extra; r++)
+			reviewCounts[popularity.next(random)]++;
+		// Spreads popular products over the asin range, rather than all at the start
+		for (int i = products - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = reviewCounts[i];
+			reviewCounts[i] = reviewCounts[j];
+			reviewCounts[j] = t;
+		}
+
+		BufferedWriter reviews = writer(new File(dir, REVIEW_FILE));
+		BufferedWriter meta = writer(new File(dir, META_FILE));
+		BufferedWriter docs = writer(new File(dir, CORPUS_FILE));
+		long time = 1400000000L;
+		try {
+			for (int i = 0; i < products; i++) {
+				String asin = asin(i);
+				String title = brands[brandPopularity.next(random)] + " " + words(random, words, 2 + random.nextInt(5));
+				StringBuilder text = new StringBuilder(title);
+
+				JSONObject product = new JSONObject();
+				product.put("asin", asin);
+				product.put("title", title);
+				product.put("brand", title.substring(0, title.indexOf(' ')));
+				// Prices are spread over a log scale around twenty dollars
+				product.put("price", String.format("$%.2f", Math.exp(3 + random.nextGaussian() * 1.2)));
+				JSONArray category = new JSONArray();
+				category.add("Musical Instruments");
+				category.add(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+				product.put("category", category);
+				product.put("description", words(random, words, 40 + random.nextInt(80)));
+				JSONArray alsoBuy = new JSONArray();
+				for (int a = random.nextInt(20); a > 0; a--)
+					alsoBuy.add(asin(popularity.next(random)));
+				product.put("also_buy", alsoBuy);
+				JSONArray images = new JSONArray();
+				if (random.nextInt(4) != 0)
+					images.add("http://localhost:" + LocalImageServer.DEFAULT_PORT + "/" + asin + ".jpg");
+				product.put("image", images);
+				meta.write(product.toJSONString());
+				meta.newLine();
+
+				// Each product leans up or down from the overall rating spread
+				int lean = random.nextInt(3) - 1;
+				for (int r = 0; r < reviewCounts[i]; r++) {
+					int stars = stars(random);
+					if (random.nextInt(3) == 0)
+						stars = Math.max(1, Math.min(5, stars + lean));
+					String summary = SUMMARIES[stars - 1][random.nextInt(SUMMARIES[stars - 1].length)];
+					String body = words(random, words, 10 + random.nextInt(60));
+
+					JSONObject review = new JSONObject();
+					review.put("reviewerID", "R" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36).toUpperCase());
+					review.put("asin", asin);
+					review.put("overall", (double) stars);
+					review.put("summary", summary);
+					review.put("reviewText", body);
+					review.put("unixReviewTime", time += random.nextInt(600));
+					reviews.write(review.toJSONString());
+					reviews.newLine();
+					text.append(' ').append(summary).append(' ').append(body);
+				}
+
+				docs.write("<DOC>\n<DOCNO>" + asin + "</DOCNO>\n<TEXT>\n" + text + "\n</TEXT>\n</DOC>\n");
+			}
+		} finally {
+			reviews.close();
+			meta.close();
+			docs.close();
+		}
+
+		BufferedWriter config = writer(new File(dir, CONFIG_FILE));
+		try {
+			config.write("{}");
+		} finally {
+			config.close();
+		}
+
+		BufferedWriter queryFile = writer(new File(dir, QUERY_FILE));
+		try {
+			List<String> queries = queries(QUERIES);
+			for (int q = 0; q < queries.size(); q++) {
+				queryFile.write((q + 1) + "\t" + queries.get(q));
+				queryFile.newLine();
+			}
+		} finally {
+			queryFile.close();
+		}
+	}
+
+	/**
+	 * Builds a galago index over the corpus written by write
+	 *
+	 * @param dir: the output directory
+	 * @throws Exception
+	 */
+	public static void buildIndex(File dir) throws Exception {
+		App.run(new String[] { "build", "--inputPath=" + new File(dir, CORPUS_FILE).getPath(),
+				"--indexPath=" + new File(dir, INDEX_DIR).getPath() });
+	}
+
+	/**
+	 * Query mix over the catalog's vocabulary: one to three Zipf distributed words, so
+	 * popular queries repeat as they do in real traffic
+	 *
+	 * @param count: number of queries
+	 * @return List<String>: the queries
+	 */
+	public List<String> queries(int count) {
+		Random random = new Random(seed + 2);
+		Zipf words = new Zipf(vocabulary.length, WORD_SKEW);
+		List<String> queries = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			double length = random.nextDouble();
+			queries.add(words(random, words, length < 0.5 ? 1 : length < 0.85 ? 2 : 3));
+		}
+		return queries;
+	}
+
+	/**
+	 * Opens a search service over a generated catalog
+	 *
+	 * @param dir: directory the catalog was written to and indexed in
+	 * @return SearchService: ready to use search service
+	 * @throws Exception
+	 */
+	public static SearchService open(File dir) throws Exception {
+		ProductCatalog catalog = new ProductCatalog(new File(dir, REVIEW_FILE).getPath(),
+				new File(dir, META_FILE).getPath());
+		catalog.loadData();
+		return new SearchService(
+				new SearchEngine(new File(dir, CONFIG_FILE).getPath(), new File(dir, INDEX_DIR).getPath()), catalog);
+	}
+
+	private static int stars(Random random) {
+		double r = random.nextDouble();
+		for (int s = 0; s < STAR_SHARE.length - 1; s++) {
+			r -= STAR_SHARE[s];
+			if (r < 0)
+				return s + 1;
+		}
+		return STAR_SHARE.length;
+	}
+
+	private String words(Random random, Zipf words, int count) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				s.append(' ');
+			s.append(vocabulary[words.next(random)]);
+		}
+		return s.toString();
+	}
+
+	private static BufferedWriter writer(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Generates a catalog and builds its index
+	 *
+	 * @param args: output directory, and optionally the number of products, average
+	 * 				reviews per product and seed
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: SyntheticCatalog <outputDir> [products] [reviewsPerProduct] [seed]");
+			return;
+		}
+		File dir = new File(args[0]);
+		int products = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PRODUCTS;
+		double reviewsPerProduct = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_REVIEWS_PER_PRODUCT;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+		long start = System.nanoTime();
+		new SyntheticCatalog(seed, products, reviewsPerProduct).write(dir);
+		System.out.println("Wrote " + products + " products to '" + dir + "' in "
+				+ String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s, building index");
+		buildIndex(dir);
+		System.out.println("Run queries with: LoadDriver " + new File(dir, QUERY_FILE) + " <qps> <seconds> " + dir);
+	}
+}